@@ -0,0 +1,16 @@
+package com.tim.gotthere_app;
+
+/**
+ * The state of the service's connection to the GotThere server.
+ */
+public enum ConnectionState {
+	//Trying to connect to a server.
+	CONNECTING,
+	CONNECTED,
+	//The connection broke and is being re-established.
+	LOST,
+	//Disconnected on purpose until the next burst upload.
+	IDLE,
+	//The sender stopped making progress on a connection that looked fine, it is being torn down to reconnect.
+	STALLED
+}
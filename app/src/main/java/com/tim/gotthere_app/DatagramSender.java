@@ -0,0 +1,58 @@
+package com.tim.gotthere_app;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Random;
+
+/**
+ * Sends live location fixes as self contained UDP datagrams (see {@link LocationDatagram}).
+ * Nothing is retransmitted, a lost datagram is simply superseded by the next one.
+ */
+public class DatagramSender {
+
+	private final DatagramSocket socket;
+	private final long session;
+	private final byte[] buffer = new byte[LocationDatagram.MAX_SIZE];
+	private final DatagramPacket packet = new DatagramPacket(this.buffer, this.buffer.length);
+
+	private int nextSequence = 0;
+
+	public DatagramSender() throws SocketException {
+		this(new Random().nextLong());
+	}
+
+	public DatagramSender(long session) throws SocketException {
+		this.socket = new DatagramSocket();
+		this.session = session;
+	}
+
+	public long getSession() {
+		return this.session;
+	}
+
+	/**
+	 * Returns the buffer the fixes should be encoded into, starting at {@link LocationDatagram#HEADER_SIZE}.
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Sends the fixes that were encoded into the buffer as one datagram.
+	 * @param count How many fixes were encoded.
+	 */
+	public void send(InetSocketAddress address, int count) throws IOException {
+		LocationDatagram.writeHeader(this.buffer, this.session, this.nextSequence, count);
+		this.packet.setLength(LocationDatagram.HEADER_SIZE + count * LocationDatagram.FIX_SIZE);
+		this.packet.setSocketAddress(address);
+		this.socket.send(this.packet);
+		this.nextSequence += count;
+	}
+
+	public void close() {
+		this.socket.close();
+	}
+}
@@ -0,0 +1,121 @@
+package com.tim.gotthere_app;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the commands the GotThere server sends back over the TCP connection. Each command starts with a type byte:
+ * <ul>
+ *     <li>{@link #WATCH_STOP}: nobody is watching the device any more, fixes can be uploaded in bursts.</li>
+ *     <li>{@link #WATCH_START}: someone is watching the device, fixes should be streamed live.</li>
+ *     <li>{@link #PING}: nothing but a sign of life. The server sends one every so often, so a dead link can be told
+ *     apart from a quiet one even while the device's own small writes still go through.</li>
+ *     <li>{@link #GEOFENCES}: replaces the device's zones. An unsigned short count, then for each zone a kind byte
+ *     and an int id, followed by latitude, longitude (doubles) and radius in meters (float) for {@link #CIRCLE},
+ *     or an unsigned short vertex count and that many latitude, longitude pairs (doubles) for {@link #POLYGON}.</li>
+ * </ul>
+ * All numbers are big endian.
+ */
+public class Downlink implements Runnable {
+
+	public static final int WATCH_STOP = 0;
+	public static final int WATCH_START = 1;
+	public static final int GEOFENCES = 2;
+	public static final int PING = 3;
+
+	public static final int CIRCLE = 0;
+	public static final int POLYGON = 1;
+
+	public interface Listener {
+		/**
+		 * Called when the server says whether someone is watching the device.
+		 */
+		void onWatching(boolean watching);
+
+		/**
+		 * Called when the server sends a new set of zones, replacing the old ones.
+		 */
+		void onGeofences(List<Geofence> geofences);
+
+		/**
+		 * Called for every command before it is handled, pings included, as proof the server is still there.
+		 */
+		void onPeerActivity();
+	}
+
+	private final DataInputStream in;
+	private final Listener listener;
+
+	public Downlink(InputStream in, Listener listener) {
+		this.in = new DataInputStream(in);
+		this.listener = listener;
+	}
+
+	/**
+	 * Reads commands until the connection is closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			while(true) {
+				int type = this.in.read();
+				if(type < 0) {
+					return;
+				}
+				this.listener.onPeerActivity();
+				this.handle(type);
+			}
+		} catch(IOException e) {
+			//The connection was closed, a new downlink starts with the next connection.
+		}
+	}
+
+	private void handle(int type) throws IOException {
+		switch(type) {
+			case WATCH_STOP:
+				this.listener.onWatching(false);
+				break;
+			case WATCH_START:
+				this.listener.onWatching(true);
+				break;
+			case GEOFENCES:
+				this.listener.onGeofences(this.readGeofences());
+				break;
+			case PING:
+				break;
+			default:
+				throw new IOException("Unknown downlink command " + type);
+		}
+	}
+
+	private List<Geofence> readGeofences() throws IOException {
+		int count = this.in.readUnsignedShort();
+		List<Geofence> geofences = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			int kind = this.in.readUnsignedByte();
+			int id = this.in.readInt();
+			try {
+				if(kind == CIRCLE) {
+					geofences.add(Geofence.circle(id, this.in.readDouble(), this.in.readDouble(), this.in.readFloat()));
+				} else if(kind == POLYGON) {
+					int vertices = this.in.readUnsignedShort();
+					double[] latitudes = new double[vertices];
+					double[] longitudes = new double[vertices];
+					for(int j = 0; j < vertices; j++) {
+						latitudes[j] = this.in.readDouble();
+						longitudes[j] = this.in.readDouble();
+					}
+					geofences.add(Geofence.polygon(id, latitudes, longitudes));
+				} else {
+					throw new IOException("Unknown zone kind " + kind);
+				}
+			} catch(IllegalArgumentException e) {
+				throw new IOException("Invalid zone " + id, e);
+			}
+		}
+		return geofences;
+	}
+}
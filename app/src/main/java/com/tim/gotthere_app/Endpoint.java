@@ -0,0 +1,118 @@
+package com.tim.gotthere_app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A GotThere server address along with the health information used to pick between servers.
+ */
+public class Endpoint {
+
+	//How long an endpoint is skipped after its first failure, doubled for every failure after that.
+	private static final long BASE_BACKOFF = 2000;
+	private static final long MAX_BACKOFF = 60000;
+
+	private final String host;
+	private final int port;
+
+	//Smoothed connect round trip time in milliseconds, -1 until the first successful connect.
+	private long rtt = -1;
+	private int failures = 0;
+	private long downUntil = 0;
+
+	public Endpoint(String host, int port) {
+		if(port < 0 || port > 65535) {
+			throw new IllegalArgumentException("Invalid port: " + port);
+		}
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Parses an endpoint written as "host:port".
+	 */
+	public static Endpoint parse(String value) {
+		String trimmed = value.trim();
+		int colon = trimmed.lastIndexOf(':');
+		if(colon <= 0 || colon == trimmed.length() - 1) {
+			throw new IllegalArgumentException("Endpoint must be host:port, got \"" + value + "\"");
+		}
+		return new Endpoint(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+	}
+
+	/**
+	 * Parses a comma separated list of "host:port" endpoints, keeping the order they were written in.
+	 */
+	public static List<Endpoint> parseList(String value) {
+		List<Endpoint> endpoints = new ArrayList<>();
+		for(String part : value.split(",")) {
+			if(!part.trim().isEmpty()) {
+				endpoints.add(parse(part));
+			}
+		}
+		return endpoints;
+	}
+
+	public String getHost() {
+		return this.host;
+	}
+
+	public int getPort() {
+		return this.port;
+	}
+
+	public synchronized long getRtt() {
+		return this.rtt;
+	}
+
+	/**
+	 * Returns true if the endpoint is not currently backing off from a failure.
+	 */
+	public synchronized boolean isHealthy(long now) {
+		return now >= this.downUntil;
+	}
+
+	synchronized long getDownUntil() {
+		return this.downUntil;
+	}
+
+	/**
+	 * Records a successful connect that took the given number of milliseconds.
+	 */
+	public synchronized void recordSuccess(long connectMillis) {
+		this.rtt = this.rtt < 0 ? connectMillis : (this.rtt * 3 + connectMillis) / 4;
+		this.failures = 0;
+		this.downUntil = 0;
+	}
+
+	/**
+	 * Records a failed connect or a lost connection, backing the endpoint off exponentially.
+	 */
+	public synchronized void recordFailure(long now) {
+		this.failures++;
+		long backoff = BASE_BACKOFF << Math.min(this.failures - 1, 16);
+		this.downUntil = now + Math.min(backoff, MAX_BACKOFF);
+	}
+
+	/**
+	 * Endpoints are equal if they have the same address, regardless of their health.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof Endpoint)) {
+			return false;
+		}
+		Endpoint endpoint = (Endpoint) other;
+		return this.host.equals(endpoint.host) && this.port == endpoint.port;
+	}
+
+	@Override
+	public int hashCode() {
+		return this.host.hashCode() * 31 + this.port;
+	}
+
+	@Override
+	public String toString() {
+		return this.host + ":" + this.port;
+	}
+}
@@ -0,0 +1,204 @@
+package com.tim.gotthere_app;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks which GotThere server to connect to out of a list of endpoints.
+ * Endpoints are tried in order of health and round trip time, with a new attempt started every stagger delay
+ * while the earlier ones are still pending ("happy eyeballs"). The first one to connect wins and the rest are closed.
+ */
+public class EndpointSelector {
+
+	private volatile int connectTimeout;
+	private final long staggerDelay;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private volatile List<Endpoint> endpoints;
+	private volatile Endpoint current;
+
+	/**
+	 * @param endpoints The endpoints to choose from, in order of preference when nothing is known about them.
+	 * @param connectTimeout How long a single connect attempt may take, in milliseconds.
+	 * @param staggerDelay How long to wait on an attempt before starting the next one in parallel, in milliseconds.
+	 */
+	public EndpointSelector(List<Endpoint> endpoints, int connectTimeout, long staggerDelay) {
+		this.setEndpoints(endpoints);
+		this.connectTimeout = connectTimeout;
+		this.staggerDelay = staggerDelay;
+	}
+
+	public void setEndpoints(List<Endpoint> endpoints) {
+		if(endpoints.isEmpty()) {
+			throw new IllegalArgumentException("At least one endpoint is required");
+		}
+		this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+	}
+
+	/**
+	 * Changes how long connect attempts may take, starting with the next connect.
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		return this.endpoints;
+	}
+
+	/**
+	 * Returns the endpoint of the last successful connect, or null if nothing has connected yet.
+	 */
+	public Endpoint getCurrent() {
+		return this.current;
+	}
+
+	/**
+	 * Connects to the best available endpoint.
+	 * @return The connected socket.
+	 * @throws IOException If every endpoint failed to connect.
+	 */
+	public Socket connect() throws IOException {
+		List<Endpoint> order = this.rank(System.currentTimeMillis());
+		CompletionService<Attempt> completion = new ExecutorCompletionService<>(this.executor);
+		List<Future<Attempt>> pending = new ArrayList<>();
+		IOException lastError = null;
+		int started = 0;
+		int finished = 0;
+
+		try {
+			pending.add(completion.submit(new Attempt(order.get(started++))));
+
+			while(finished < started) {
+				Future<Attempt> done;
+				if(started < order.size()) {
+					done = completion.poll(this.staggerDelay, TimeUnit.MILLISECONDS);
+					if(done == null) {
+						//The pending attempts are taking too long, race the next endpoint against them.
+						pending.add(completion.submit(new Attempt(order.get(started++))));
+						continue;
+					}
+				} else {
+					done = completion.take();
+				}
+
+				finished++;
+				pending.remove(done);
+				try {
+					Attempt attempt = done.get();
+					this.current = attempt.endpoint;
+					return attempt.socket;
+				} catch(ExecutionException e) {
+					lastError = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+					//Don't wait out the stagger delay when an attempt has already failed.
+					if(started < order.size()) {
+						pending.add(completion.submit(new Attempt(order.get(started++))));
+					}
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while connecting");
+		} finally {
+			for(Future<Attempt> loser : pending) {
+				this.closeWhenDone(loser);
+			}
+		}
+
+		throw lastError;
+	}
+
+	/**
+	 * Marks the current endpoint as failed, so the next connect prefers another one.
+	 * Used when an established connection is lost.
+	 */
+	public void reportFailure() {
+		Endpoint endpoint = this.current;
+		if(endpoint != null) {
+			endpoint.recordFailure(System.currentTimeMillis());
+		}
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Orders the endpoints for a connect: healthy ones first by round trip time (unknown times last),
+	 * then the ones that are backing off by how soon they come back. Ties keep the configured order.
+	 */
+	List<Endpoint> rank(long now) {
+		List<Endpoint> healthy = new ArrayList<>();
+		List<Endpoint> backingOff = new ArrayList<>();
+		for(Endpoint endpoint : this.endpoints) {
+			(endpoint.isHealthy(now) ? healthy : backingOff).add(endpoint);
+		}
+
+		Collections.sort(healthy, (a, b) -> {
+			long rttA = a.getRtt() < 0 ? Long.MAX_VALUE : a.getRtt();
+			long rttB = b.getRtt() < 0 ? Long.MAX_VALUE : b.getRtt();
+			return Long.compare(rttA, rttB);
+		});
+		Collections.sort(backingOff, (a, b) -> Long.compare(a.getDownUntil(), b.getDownUntil()));
+
+		healthy.addAll(backingOff);
+		return healthy;
+	}
+
+	/**
+	 * Closes the socket of an attempt that lost the race once it finishes.
+	 */
+	private void closeWhenDone(Future<Attempt> loser) {
+		try {
+			this.executor.execute(() -> {
+				try {
+					loser.get().socket.close();
+				} catch(ExecutionException | InterruptedException | IOException e) {
+					//Nothing to close.
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			//Shut down while connecting, the attempt's thread is interrupted along with the executor.
+			loser.cancel(true);
+		}
+	}
+
+	private class Attempt implements Callable<Attempt> {
+		private final Endpoint endpoint;
+		private Socket socket;
+
+		Attempt(Endpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		public Attempt call() throws IOException {
+			Socket socket = new Socket();
+			long start = System.nanoTime();
+			try {
+				socket.connect(new InetSocketAddress(this.endpoint.getHost(), this.endpoint.getPort()), connectTimeout);
+			} catch(IOException | RuntimeException e) {
+				this.endpoint.recordFailure(System.currentTimeMillis());
+				socket.close();
+				throw e;
+			}
+			this.endpoint.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			this.socket = socket;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.tim.gotthere_app;
+
+/**
+ * A zone sent by the server, such as a depot or a customer site, either a circle or a polygon.
+ * Distances use an equirectangular approximation, which is plenty for zones a few kilometers across.
+ */
+public class Geofence {
+
+	private static final double METERS_PER_DEGREE_LAT = 110540;
+	private static final double METERS_PER_DEGREE_LON = 111320;
+
+	private final int id;
+
+	//Circle, radius is 0 for polygons.
+	private final double latitude;
+	private final double longitude;
+	private final double radius;
+	private final double lonScale;
+
+	//Polygon vertices, null for circles.
+	private final double[] latitudes;
+	private final double[] longitudes;
+
+	private final double minLatitude;
+	private final double maxLatitude;
+	private final double minLongitude;
+	private final double maxLongitude;
+
+	private Geofence(int id, double latitude, double longitude, double radius, double[] latitudes, double[] longitudes,
+			double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
+		this.id = id;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.radius = radius;
+		this.lonScale = Math.cos(Math.toRadians(latitude)) * METERS_PER_DEGREE_LON;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.minLatitude = minLatitude;
+		this.maxLatitude = maxLatitude;
+		this.minLongitude = Math.max(minLongitude, -180);
+		this.maxLongitude = Math.min(maxLongitude, 180);
+	}
+
+	/**
+	 * @param radius The radius in meters.
+	 */
+	public static Geofence circle(int id, double latitude, double longitude, double radius) {
+		if(!(radius > 0)) {
+			throw new IllegalArgumentException("Radius must be positive: " + radius);
+		}
+		double latSpan = radius / METERS_PER_DEGREE_LAT;
+		double lonSpan = radius / (Math.max(Math.cos(Math.toRadians(latitude)), 0.01) * METERS_PER_DEGREE_LON);
+		return new Geofence(id, latitude, longitude, radius, null, null,
+				latitude - latSpan, latitude + latSpan, longitude - lonSpan, longitude + lonSpan);
+	}
+
+	/**
+	 * @param latitudes The latitudes of the vertices, in order around the polygon.
+	 * @param longitudes The longitudes of the vertices, in the same order.
+	 */
+	public static Geofence polygon(int id, double[] latitudes, double[] longitudes) {
+		if(latitudes.length != longitudes.length || latitudes.length < 3) {
+			throw new IllegalArgumentException("A polygon needs at least 3 vertices with both coordinates");
+		}
+		double minLat = Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		double minLon = Double.MAX_VALUE;
+		double maxLon = -Double.MAX_VALUE;
+		for(int i = 0; i < latitudes.length; i++) {
+			minLat = Math.min(minLat, latitudes[i]);
+			maxLat = Math.max(maxLat, latitudes[i]);
+			minLon = Math.min(minLon, longitudes[i]);
+			maxLon = Math.max(maxLon, longitudes[i]);
+		}
+		return new Geofence(id, 0, 0, 0, latitudes.clone(), longitudes.clone(), minLat, maxLat, minLon, maxLon);
+	}
+
+	public int getId() {
+		return this.id;
+	}
+
+	public double getMinLatitude() {
+		return this.minLatitude;
+	}
+
+	public double getMaxLatitude() {
+		return this.maxLatitude;
+	}
+
+	public double getMinLongitude() {
+		return this.minLongitude;
+	}
+
+	public double getMaxLongitude() {
+		return this.maxLongitude;
+	}
+
+	public boolean contains(double latitude, double longitude) {
+		if(latitude < this.minLatitude || latitude > this.maxLatitude || longitude < this.minLongitude || longitude > this.maxLongitude) {
+			return false;
+		}
+
+		if(this.latitudes == null) {
+			double dy = (latitude - this.latitude) * METERS_PER_DEGREE_LAT;
+			double dx = (longitude - this.longitude) * this.lonScale;
+			return dx * dx + dy * dy <= this.radius * this.radius;
+		}
+
+		//Ray casting: count the edges crossed going east from the point.
+		boolean inside = false;
+		for(int i = 0, j = this.latitudes.length - 1; i < this.latitudes.length; j = i++) {
+			if((this.latitudes[i] > latitude) != (this.latitudes[j] > latitude)) {
+				double crossing = this.longitudes[i] + (latitude - this.latitudes[i])
+						* (this.longitudes[j] - this.longitudes[i]) / (this.latitudes[j] - this.latitudes[i]);
+				if(longitude < crossing) {
+					inside = !inside;
+				}
+			}
+		}
+		return inside;
+	}
+}
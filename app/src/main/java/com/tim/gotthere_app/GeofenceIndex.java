@@ -0,0 +1,127 @@
+package com.tim.gotthere_app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed grid over the zones for finding the zone a fix is in without looking at every zone.
+ * Each zone is added to every grid cell its bounding box touches, so a lookup only hashes the fix's cell and checks
+ * the handful of zones in it. The cells live in an open addressing table of primitive keys so lookups don't allocate.
+ * Zones that would cover too many cells are kept aside and checked on every lookup instead.
+ * Immutable once built, so it can be swapped in while the service is reading it.
+ */
+public class GeofenceIndex {
+
+	//Zones bigger than this many cells go in the oversized list.
+	private static final int MAX_CELLS_PER_ZONE = 4096;
+	private static final Geofence[] NONE = new Geofence[0];
+
+	public static final GeofenceIndex EMPTY = new GeofenceIndex(Collections.<Geofence>emptyList(), 0.01);
+
+	private final double cellSize;
+	private final int size;
+	private final long[] keys;
+	private final Geofence[][] cells;
+	private final Geofence[] oversized;
+
+	/**
+	 * @param cellSize The width and height of a grid cell in degrees. About the size of a typical zone works best.
+	 */
+	public GeofenceIndex(List<Geofence> zones, double cellSize) {
+		if(cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+		this.size = zones.size();
+
+		Map<Long, List<Geofence>> grid = new LinkedHashMap<>();
+		List<Geofence> oversized = new ArrayList<>();
+		for(Geofence zone : zones) {
+			int minRow = this.row(zone.getMinLatitude());
+			int maxRow = this.row(zone.getMaxLatitude());
+			int minColumn = this.column(zone.getMinLongitude());
+			int maxColumn = this.column(zone.getMaxLongitude());
+			if((long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS_PER_ZONE) {
+				oversized.add(zone);
+				continue;
+			}
+
+			for(int row = minRow; row <= maxRow; row++) {
+				for(int column = minColumn; column <= maxColumn; column++) {
+					Long key = key(row, column);
+					List<Geofence> cell = grid.get(key);
+					if(cell == null) {
+						cell = new ArrayList<>(1);
+						grid.put(key, cell);
+					}
+					cell.add(zone);
+				}
+			}
+		}
+
+		//Power of two capacity at most half full, so probes stay short.
+		int capacity = Integer.highestOneBit(Math.max(grid.size(), 1) * 2 - 1) << 1;
+		this.keys = new long[capacity];
+		this.cells = new Geofence[capacity][];
+		for(Map.Entry<Long, List<Geofence>> entry : grid.entrySet()) {
+			int slot = this.slot(entry.getKey());
+			while(this.cells[slot] != null) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			this.keys[slot] = entry.getKey();
+			this.cells[slot] = entry.getValue().toArray(NONE);
+		}
+		this.oversized = oversized.toArray(NONE);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the zone containing the point, or null if it is not in any. If zones overlap, either may be returned.
+	 */
+	public Geofence find(double latitude, double longitude) {
+		long key = key(this.row(latitude), this.column(longitude));
+		int slot = this.slot(key);
+		Geofence[] cell;
+		while((cell = this.cells[slot]) != null) {
+			if(this.keys[slot] == key) {
+				for(Geofence zone : cell) {
+					if(zone.contains(latitude, longitude)) {
+						return zone;
+					}
+				}
+				break;
+			}
+			slot = (slot + 1) & (this.keys.length - 1);
+		}
+
+		for(Geofence zone : this.oversized) {
+			if(zone.contains(latitude, longitude)) {
+				return zone;
+			}
+		}
+		return null;
+	}
+
+	private int row(double latitude) {
+		return (int) Math.floor(latitude / this.cellSize);
+	}
+
+	private int column(double longitude) {
+		return (int) Math.floor(longitude / this.cellSize);
+	}
+
+	private static long key(int row, int column) {
+		return ((long) row << 32) | (column & 0xFFFFFFFFL);
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (this.keys.length - 1);
+	}
+}
@@ -0,0 +1,73 @@
+package com.tim.gotthere_app;
+
+import com.tim.gotthere_ingest.FixDecoder;
+import com.tim.gotthere_ingest.FixEncoder;
+
+/**
+ * The layout of a live location datagram. Each datagram stands on its own so a lost one never holds up the next:
+ * <pre>
+ * byte  magic     'G'
+ * byte  version   1
+ * long  session   random per service run
+ * int   sequence  sequence number of the first fix, later fixes follow on from it
+ * byte  count     number of fixes
+ * count * 15 byte fixes, in the same layout as the TCP stream
+ * </pre>
+ * All numbers are big endian. The receiver keeps the newest sequence number per session and drops anything older.
+ * The bytes themselves are written and read by the ingest module's {@link FixEncoder} and {@link FixDecoder}, this
+ * only adds what the app needs on top.
+ */
+public final class LocationDatagram {
+
+	public static final byte MAGIC = FixDecoder.MAGIC;
+	public static final byte VERSION = FixDecoder.VERSION;
+	public static final int HEADER_SIZE = FixDecoder.HEADER_SIZE;
+	public static final int FIX_SIZE = FixDecoder.FIX_SIZE;
+	//Keeps a full datagram well under the smallest MTU we expect on cellular links.
+	public static final int MAX_FIXES = 32;
+	public static final int MAX_SIZE = HEADER_SIZE + MAX_FIXES * FIX_SIZE;
+
+	private LocationDatagram() {
+	}
+
+	/**
+	 * Writes a datagram header to the start of the buffer. The fixes go right after it, at HEADER_SIZE.
+	 */
+	public static void writeHeader(byte[] buffer, long session, int sequence, int count) {
+		if(count < 1 || count > MAX_FIXES) {
+			throw new IllegalArgumentException("Invalid fix count: " + count);
+		}
+		FixEncoder.writeHeader(buffer, 0, session, sequence, count);
+	}
+
+	/**
+	 * Returns true if the bytes hold a complete datagram this version understands.
+	 */
+	public static boolean isValid(byte[] buffer, int offset, int length) {
+		return length >= HEADER_SIZE
+				&& buffer[offset] == MAGIC
+				&& buffer[offset + 1] == VERSION
+				&& getCount(buffer, offset) > 0
+				&& length >= HEADER_SIZE + getCount(buffer, offset) * FIX_SIZE;
+	}
+
+	public static long getSession(byte[] buffer, int offset) {
+		return FixDecoder.getSession(buffer, offset);
+	}
+
+	public static int getSequence(byte[] buffer, int offset) {
+		return FixDecoder.getSequence(buffer, offset);
+	}
+
+	public static int getCount(byte[] buffer, int offset) {
+		return buffer[offset + 14] & 0xFF;
+	}
+
+	/**
+	 * Compares sequence numbers allowing for wrap around, so a long running session keeps working.
+	 * @return True if sequence comes after last.
+	 */
+	public static boolean isNewer(int sequence, int last) {
+		return sequence - last > 0;
+	}
+}
@@ -9,6 +9,12 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.location.Location;
 import android.os.Binder;
 import android.os.Build;
@@ -16,11 +22,11 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
-import android.preference.PreferenceManager;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
@@ -30,14 +36,31 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.tim.gotthere_ingest.FixEncoder;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
 
 public class LocationService extends Service {
 
@@ -46,12 +69,38 @@ public class LocationService extends Service {
 	private final String CHANNEL_ID = "channel_01";
 
 	public static final String PACKAGE_NAME = "com.tim.gotthere_app";
-	public static final String ACTION_BROADCAST = PACKAGE_NAME + ".broadcast";
-	public static final String EXTRA_LOCATION = PACKAGE_NAME + ".location";
 	public static final String EXTRA_STARTED_FROM_NOTIFICATION = PACKAGE_NAME + ".started_from_notification";
-
-	private final long INTERVAL = 30000;
-	private final long FASTEST_INTERVAL = 15000;
+	//Writes the recorded trace to the app's files, for example with "adb shell am startservice -a com.tim.gotthere_app.DUMP_TRACE".
+	public static final String ACTION_DUMP_TRACE = PACKAGE_NAME + ".DUMP_TRACE";
+
+	//Names of the traced stages.
+	private static final String TRACE_NEW_LOCATION = "onNewLocation";
+	private static final String TRACE_QUEUE_OFFER = "locationQueue.offer";
+	private static final String TRACE_QUEUE_TAKE = "locationQueue.take";
+	private static final String TRACE_ENCODE = "encodeLocation";
+	private static final String TRACE_WRITE = "OutputStream.write";
+	private static final String TRACE_DATAGRAM = "DatagramSender.send";
+	private static final String TRACE_CONNECT = "connectSocket";
+	private static final String TRACE_HANDSHAKE = "TlsConnector.wrap";
+
+	//How long to wait on a connect attempt before racing the next endpoint.
+	private final long CONNECT_STAGGER = 250;
+	private final int HANDSHAKE_TIMEOUT = 5000;
+	//The longest a burst is put off after failing to connect, unless the burst interval itself is longer.
+	private final long MAX_BURST_BACKOFF = 60 * 60 * 1000;
+	//How often the stall watchdog checks on the sender.
+	private final long STALL_CHECK_PERIOD = 5000;
+	//How often to check whether the device has been still for long enough to pause.
+	private final long STATIONARY_CHECK_PERIOD = 60000;
+	//How far the acceleration may be off gravity before it counts as motion, in m/s^2. Enough to ignore a desk being bumped.
+	private final double MOTION_THRESHOLD = 0.6;
+	//While moving, accelerometer readings are batched up for this long (in microseconds) so the processor can sleep.
+	private final int MOTION_REPORT_LATENCY = 10000000;
+	//A self-signed server certificate to trust instead of the system's certificate authorities, if the asset exists.
+	//It has to name the endpoints' hosts (or IP addresses) for hostname verification to pass.
+	private static final String SERVER_CERTIFICATE_ASSET = "server_certificate.pem";
+	//Grid cell size of the zone index in degrees, about a kilometer.
+	private final double ZONE_CELL_SIZE = 0.01;
 
 	private static final int NOTIFICATION_ID = 12345678;
 
@@ -64,23 +113,172 @@ public class LocationService extends Service {
 	private Handler mServiceHandler;
 	private NotificationManager mNotificationManager;
 
-	private Socket socket;
+	//Connection, sampling and batching settings. Read again wherever they are used, so changes apply straight away.
+	private SettingsStore settingsStore;
+	private final SettingsStore.Listener settingsListener = this::onSettingsChanged;
+
+	private EndpointSelector endpointSelector;
+	private volatile TlsConnector tlsConnector;
+	private volatile Socket socket;
+	//The TCP socket under the TLS layer, closed to break a stall since closing the TLS socket can wait on a blocked write.
+	private volatile Socket plainSocket;
+	//Set when the connection is closed on purpose to reconnect, so it doesn't count as the server failing.
+	private volatile boolean reconnectRequested = false;
+	private volatile DatagramSender datagramSender;
+	private Endpoint datagramEndpoint;
+	private InetSocketAddress datagramAddress;
+	private final Location[] datagramFixes = new Location[LocationDatagram.MAX_FIXES];
+
+	//Sized for the largest capacity setting, the current setting is enforced when adding locations.
+	//A deque so locations that failed to send can go back in front of newer ones.
+	private BlockingDeque<Location> locationQueue = new LinkedBlockingDeque<>(Settings.MAX_QUEUE_CAPACITY);
+
+	private final List<Location> burstFixes = new ArrayList<>();
+	private byte[] burstBuffer = new byte[LocationDatagram.MAX_FIXES * LocationDatagram.FIX_SIZE];
+	private long lastBurst = 0;
+	//How long the next burst is put off after failing, 0 after a burst went through.
+	private long burstBackoff = 0;
+	private long burstRetryAt = 0;
+	//Signalled on every new fix and whenever the upload mode may have changed.
+	private final UploadSignal uploadSignal = new UploadSignal();
+	private final UploadSignal.Condition streaming = () -> !this.closing && this.isStreaming();
+
+	private volatile GeofenceIndex geofences = GeofenceIndex.EMPTY;
+	private final ZoneFilter zoneFilter = new ZoneFilter();
+
+	//Someone is watching the device, either through the app or through the server.
+	private volatile boolean localWatching = false;
+	private volatile boolean remoteWatching = false;
+
+	private volatile ConnectionState connectionState = ConnectionState.CONNECTING;
+	private volatile boolean closing = false;
+
+	private final ServiceObservers observers = new ServiceObservers();
+	//Keeps the latest spans of each stage while tracing is switched on in the settings.
+	private final Tracer tracer = new Tracer(4096);
+
+	//While stationary, location updates are removed and the sender lets the connection idle until the device moves.
+	//Significant motion wakes the service up on devices that have it, otherwise the accelerometer keeps listening.
+	private SensorManager sensorManager;
+	private Sensor accelerometer;
+	private Sensor significantMotion;
+	private TriggerEventListener significantMotionListener;
+	private volatile StationaryDetector stationaryDetector;
+	private volatile boolean stationary = false;
+
+	private final SensorEventListener accelerometerListener = new SensorEventListener() {
+		@Override
+		public void onSensorChanged(SensorEvent event) {
+			StationaryDetector detector = stationaryDetector;
+			if(detector != null) {
+				detector.onAcceleration(event.values[0], event.values[1], event.values[2], System.currentTimeMillis());
+			}
+		}
 
-	private BlockingQueue<Location> locationQueue = new ArrayBlockingQueue<>(512);
+		@Override
+		public void onAccuracyChanged(Sensor sensor, int accuracy) {
+		}
+	};
 
-	private boolean isConnected = false;
-	private boolean lostConnection = false;
-	private boolean closing = false;
+	private final StationaryDetector.Listener stationaryListener = new StationaryDetector.Listener() {
+		@Override
+		public void onStationary() {
+			pauseWhileStationary();
+		}
+
+		@Override
+		public void onMoving() {
+			resumeFromStationary();
+		}
+	};
+
+	private final Runnable stationaryCheck = new Runnable() {
+		@Override
+		public void run() {
+			StationaryDetector detector = stationaryDetector;
+			if(detector != null) {
+				detector.check(System.currentTimeMillis());
+				mServiceHandler.postDelayed(this, STATIONARY_CHECK_PERIOD);
+			}
+		}
+	};
+
+	@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+	private class SignificantMotionListener extends TriggerEventListener {
+		@Override
+		public void onTrigger(TriggerEvent event) {
+			//Triggers arrive on the main thread, the detector is only used on the service thread.
+			mServiceHandler.post(() -> {
+				StationaryDetector detector = stationaryDetector;
+				if(detector != null) {
+					detector.onMotion(System.currentTimeMillis());
+				}
+			});
+		}
+	}
+
+	private StallWatchdog stallWatchdog;
+	private final StallWatchdog.Listener stallListener = new StallWatchdog.Listener() {
+		@Override
+		public long getOldestPending() {
+			//Only live fixes on an open connection are overdue, bursts hold fixes back on purpose.
+			if(socket == null || !isStreaming()) {
+				return -1;
+			}
+			Location oldest = locationQueue.peek();
+			return oldest == null ? -1 : oldest.getTime();
+		}
+
+		@Override
+		public void onStall(String reason) {
+			onSenderStalled(reason);
+		}
+	};
+	//Counters for the metrics. Each is only written by one thread, except drops, which happen both when a new fix
+	//pushes out the oldest and when the sender can't put a fix back.
+	private volatile long sentLocations = 0;
+	private final AtomicLong droppedLocations = new AtomicLong();
+	private volatile long suppressedLocations = 0;
+	private volatile long lostConnections = 0;
+	private volatile long bursts = 0;
 
-	private Thread socketThread = new Thread(this::connectSocket);
 	private Thread locationThread = new Thread(this::readLocationQueue);
 
+	private final Downlink.Listener downlinkListener = new Downlink.Listener() {
+		@Override
+		public void onWatching(boolean watching) {
+			setRemoteWatching(watching);
+		}
+
+		@Override
+		public void onGeofences(List<Geofence> geofences) {
+			Log.d(TAG, "Received " + geofences.size() + " zones");
+			LocationService.this.geofences = new GeofenceIndex(geofences, ZONE_CELL_SIZE);
+		}
+
+		@Override
+		public void onPeerActivity() {
+			stallWatchdog.onPeerActivity();
+		}
+	};
+
 	public class LocalBinder extends Binder {
 		LocationService getService() {
 			return LocationService.this;
 		}
 	}
 
+	/**
+	 * Starts delivering fixes, connection state and metrics to the observer on the given executor.
+	 */
+	public void addObserver(ServiceObservers.Observer observer, Executor executor) {
+		this.observers.register(observer, executor);
+	}
+
+	public void removeObserver(ServiceObservers.Observer observer) {
+		this.observers.unregister(observer);
+	}
+
 	/**
 	 * Called when the service is first started. It only runs once.
 	 * Used to start the threads that provide connection and send out location data.
@@ -90,14 +288,25 @@ public class LocationService extends Service {
 		super.onCreate();
 		Log.d(TAG, "onCreate()");
 
-		//Start thread for connection
-		this.socketThread.start();
-		//Start thread for reading queued locations.
+		this.settingsStore = SettingsStore.get(this);
+		Settings settings = this.settingsStore.current();
+		this.endpointSelector = new EndpointSelector(settings.endpoints, settings.connectTimeout, CONNECT_STAGGER);
+		this.applyTransportSettings(settings);
+		this.tracer.setEnabled(settings.tracing);
+		this.stallWatchdog = new StallWatchdog(this.stallListener, settings.stallWriteTimeout, settings.stallQueueDelay,
+				settings.stallPeerTimeout);
+		this.stallWatchdog.start(STALL_CHECK_PERIOD);
+		this.settingsStore.addListener(this.settingsListener);
+
+		//Start thread for connecting and sending out queued locations.
 		this.locationThread.start();
 
 		Log.d(TAG, "Ready");
 
 		this.setupFusedLocationClient();
+		if(settings.stationaryDetection) {
+			this.startMotionDetection();
+		}
 	}
 
 	/**
@@ -106,6 +315,14 @@ public class LocationService extends Service {
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		Log.i(TAG, "onStartCommand()");
+		//A sticky service is restarted with a null intent after the system killed it.
+		if(intent == null) {
+			return START_STICKY;
+		}
+		if(ACTION_DUMP_TRACE.equals(intent.getAction())) {
+			this.dumpTrace();
+			return START_STICKY;
+		}
 		boolean startedFromNotification = intent.getBooleanExtra(EXTRA_STARTED_FROM_NOTIFICATION, false);
 
 		if(startedFromNotification) {
@@ -127,6 +344,7 @@ public class LocationService extends Service {
 		Log.i(TAG, "onBind()");
 		this.stopForeground(true);
 		this.mChangingConfiguration = false;
+		this.setLocalWatching(true);
 		return this.M_BINDER;
 	}
 
@@ -141,6 +359,7 @@ public class LocationService extends Service {
 		Log.i(TAG, "onRebind()");
 		this.stopForeground(true);
 		mChangingConfiguration = false;
+		this.setLocalWatching(true);
 		super.onRebind(intent);
 	}
 
@@ -152,6 +371,7 @@ public class LocationService extends Service {
 	@Override
 	public boolean onUnbind(Intent intent) {
 		Log.i(TAG, "onUnbind()");
+		this.setLocalWatching(false);
 
 		// Called when the last client (MainActivity in case of this sample) unbinds from this
 		// service. If this method is called due to a configuration change in MainActivity, we
@@ -178,10 +398,12 @@ public class LocationService extends Service {
 	public void onDestroy() {
 		Log.i(TAG, "onDestroy()");
 		this.closing = true;
+		this.settingsStore.removeListener(this.settingsListener);
+		this.endpointSelector.shutdown();
+		this.stallWatchdog.shutdown();
 		this.locationThread.interrupt();
 		try {
 			this.locationThread.join();
-			this.socketThread.join();
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
@@ -194,7 +416,12 @@ public class LocationService extends Service {
 				e.printStackTrace();
 			}
 		}
+		if(this.datagramSender != null) {
+			this.datagramSender.close();
+		}
 		mServiceHandler.removeCallbacksAndMessages(null);
+		//Runs after a stationary check that may be in progress, which could otherwise register the sensors again.
+		mServiceHandler.post(this::stopMotionDetection);
 	}
 
 	/**
@@ -238,24 +465,65 @@ public class LocationService extends Service {
 	}
 
 	private void createLocationRequest() {
+		Settings settings = this.settingsStore.current();
 		this.mLocationRequest = new LocationRequest();
-		this.mLocationRequest.setInterval(this.INTERVAL);
-		this.mLocationRequest.setFastestInterval(this.FASTEST_INTERVAL);
+		this.mLocationRequest.setInterval(settings.locationInterval);
+		this.mLocationRequest.setFastestInterval(settings.fastestLocationInterval);
 		this.mLocationRequest.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
 	}
 
 	private void onNewLocation(Location location) {
+		long begin = this.tracer.begin();
 		Log.i(TAG, "New location: " + location);
 
 		mLocation = location;
+		this.observers.publishLocation(location);
 
-		try {
-			this.locationQueue.put(location);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		if(this.suppressInZone(location)) {
+			this.suppressedLocations++;
+			this.tracer.end(TRACE_NEW_LOCATION, begin);
+			return;
 		}
+
+		//Bursts and outages let the queue fill up, so the oldest location makes room rather than blocking the callback.
+		Settings settings = this.settingsStore.current();
+		long offerBegin = this.tracer.begin();
+		while(this.locationQueue.size() >= settings.queueCapacity || !this.locationQueue.offer(location)) {
+			this.locationQueue.poll();
+			this.droppedLocations.incrementAndGet();
+		}
+		this.tracer.end(TRACE_QUEUE_OFFER, offerBegin, this.locationQueue.size());
+
+		//Wakes the streaming sender, a sender waiting to reconnect that can send it as a datagram meanwhile,
+		//and one waiting for a burst in case the threshold was reached.
+		this.signalUpload();
+		this.tracer.end(TRACE_NEW_LOCATION, begin);
 	}
 
+	/**
+	 * Returns true if the fix carries no news: it is in the same zone as the last fix sent and the heartbeat isn't due.
+	 * Entering or leaving a zone always lets the fix through.
+	 */
+	private boolean suppressInZone(Location location) {
+		Geofence previous = this.zoneFilter.getCurrentZone();
+		if(this.zoneFilter.suppress(this.geofences, location.getLatitude(), location.getLongitude(), location.getTime(),
+				this.settingsStore.current().zoneHeartbeat)) {
+			return true;
+		}
+
+		Geofence zone = this.zoneFilter.getCurrentZone();
+		if(!ZoneFilter.isSameZone(previous, zone)) {
+			if(previous != null) {
+				Log.d(TAG, "Left zone " + previous.getId());
+			}
+			if(zone != null) {
+				Log.d(TAG, "Entered zone " + zone.getId());
+			}
+		}
+		return false;
+	}
+
+
 	private void getLastLocation() {
 		try {
 			this.mFusedLocationClient.getLastLocation().addOnCompleteListener(new OnCompleteListener<Location>() {
@@ -279,12 +547,16 @@ public class LocationService extends Service {
 	 */
 	public void requestLocationUpdates() {
 		Log.i(TAG, "Requesting location updates");
-		setRequestingLocationUpdates(this, true);
+		this.settingsStore.setRequestingLocationUpdates(true);
 		this.startService(new Intent(getApplicationContext(), LocationService.class));
+		if(this.stationary) {
+			//Updates are paused while sitting still, resumeFromStationary() requests them once motion is seen.
+			return;
+		}
 		try {
 			this.mFusedLocationClient.requestLocationUpdates(this.mLocationRequest, this.mLocationCallback, Looper.myLooper());
 		} catch (SecurityException unlikely) {
-			setRequestingLocationUpdates(this, false);
+			this.settingsStore.setRequestingLocationUpdates(false);
 			Log.e(TAG, "Lost location permission. Could not request updates. " + unlikely);
 		}
 	}
@@ -297,182 +569,807 @@ public class LocationService extends Service {
 		Log.i(TAG, "Removing location updates");
 		try {
 			mFusedLocationClient.removeLocationUpdates(mLocationCallback);
-			setRequestingLocationUpdates(this, false);
+			this.settingsStore.setRequestingLocationUpdates(false);
 			this.stopSelf();
 		} catch (SecurityException unlikely) {
-			setRequestingLocationUpdates(this, true);
+			this.settingsStore.setRequestingLocationUpdates(true);
 			Log.e(TAG, "Lost location permission. Could not remove updates. " + unlikely);
 		}
 	}
 
 	/**
-	 * Stores the location updates state in SharedPreferences.
-	 * @param requestingLocationUpdates The location updates state.
+	 * Asks for location updates with the current request, replacing any earlier request. Updates arrive on the main thread.
 	 */
-	static void setRequestingLocationUpdates(Context context, boolean requestingLocationUpdates) {
-		PreferenceManager.getDefaultSharedPreferences(context)
-				.edit()
-				.putBoolean(Util.KEY_REQUESTING_LOCATION_UPDATES, requestingLocationUpdates)
-				.apply();
+	private void resumeLocationUpdates() {
+		try {
+			this.mFusedLocationClient.requestLocationUpdates(this.mLocationRequest, this.mLocationCallback, Looper.getMainLooper());
+		} catch(SecurityException unlikely) {
+			Log.e(TAG, "Lost location permission. Could not request updates. " + unlikely);
+		}
 	}
 
 	/**
-	 * Used to connect the socket to the GotThere server. It does not stop until connection is established.
-	 * Should be ran as a separate thread.
+	 * Starts watching the sensors for the device sitting still. Does nothing if it has no accelerometer.
+	 */
+	private void startMotionDetection() {
+		if(this.stationaryDetector != null) {
+			return;
+		}
+		this.sensorManager = (SensorManager) this.getSystemService(SENSOR_SERVICE);
+		this.accelerometer = this.sensorManager == null ? null : this.sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		if(this.accelerometer == null) {
+			Log.w(TAG, "No accelerometer, not pausing while stationary");
+			return;
+		}
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			this.significantMotion = this.sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+			if(this.significantMotion != null) {
+				this.significantMotionListener = new SignificantMotionListener();
+			}
+		}
+
+		this.stationaryDetector = new StationaryDetector(this.stationaryListener, this.settingsStore.current().stationaryAfter,
+				MOTION_THRESHOLD, System.currentTimeMillis());
+		this.listenToAccelerometer(true);
+		this.mServiceHandler.postDelayed(this.stationaryCheck, STATIONARY_CHECK_PERIOD);
+	}
+
+	/**
+	 * Stops watching the sensors. Location updates are left as they are.
+	 * Only call it on the service thread, where the stationary checks and sensor callbacks run.
+	 */
+	private void stopMotionDetection() {
+		if(this.stationaryDetector == null) {
+			return;
+		}
+		this.stationaryDetector = null;
+		this.mServiceHandler.removeCallbacks(this.stationaryCheck);
+		this.sensorManager.unregisterListener(this.accelerometerListener);
+		if(this.significantMotionListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			this.sensorManager.cancelTriggerSensor(this.significantMotionListener, this.significantMotion);
+		}
+	}
+
+	/**
+	 * @param batched Lets readings pile up in the sensor hub before they are delivered, on devices that support it.
+	 * Only used while moving, since it delays noticing motion.
+	 */
+	private void listenToAccelerometer(boolean batched) {
+		this.sensorManager.unregisterListener(this.accelerometerListener);
+		if(batched && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			this.sensorManager.registerListener(this.accelerometerListener, this.accelerometer, SensorManager.SENSOR_DELAY_NORMAL,
+					MOTION_REPORT_LATENCY, this.mServiceHandler);
+		} else {
+			this.sensorManager.registerListener(this.accelerometerListener, this.accelerometer, SensorManager.SENSOR_DELAY_NORMAL,
+					this.mServiceHandler);
+		}
+	}
+
+	/**
+	 * Called when the device has been still for the stationary period. Removes location updates without changing
+	 * whether the user asked for them, and wakes the sender so it disconnects. Anything left goes in the next burst.
+	 */
+	private void pauseWhileStationary() {
+		if(this.stationaryDetector == null) {
+			//Detection was switched off meanwhile.
+			return;
+		}
+		Log.i(TAG, "Stationary, pausing location updates");
+		this.stationary = true;
+		if(this.significantMotionListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			this.sensorManager.unregisterListener(this.accelerometerListener);
+			this.sensorManager.requestTriggerSensor(this.significantMotionListener, this.significantMotion);
+		} else {
+			this.listenToAccelerometer(false);
+		}
+		this.mFusedLocationClient.removeLocationUpdates(this.mLocationCallback);
+		this.signalUpload();
+		this.publishMetrics();
+	}
+
+	/**
+	 * Called on the first motion while stationary. Requests location updates again straight away.
+	 */
+	private void resumeFromStationary() {
+		if(this.stationaryDetector == null) {
+			return;
+		}
+		Log.i(TAG, "Moving, resuming location updates");
+		this.stationary = false;
+		if(this.significantMotionListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+			//Already disarmed if it is what noticed the motion.
+			this.sensorManager.cancelTriggerSensor(this.significantMotionListener, this.significantMotion);
+		}
+		this.listenToAccelerometer(true);
+		if(this.settingsStore.current().requestingLocationUpdates) {
+			this.resumeLocationUpdates();
+		}
+		this.signalUpload();
+		this.publishMetrics();
+	}
+
+	/**
+	 * Creates the TLS context, trusting only the bundled server certificate if there is one.
+	 */
+	private SSLContext createTlsContext() throws GeneralSecurityException, IOException {
+		InputStream certificate;
+		try {
+			certificate = this.getAssets().open(SERVER_CERTIFICATE_ASSET);
+		} catch(FileNotFoundException e) {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, null, null);
+			return context;
+		}
+
+		try {
+			return TlsConnector.trusting(certificate);
+		} finally {
+			certificate.close();
+		}
+	}
+
+	/**
+	 * Used to connect the socket to the best available GotThere server. It does not stop until connection is established
+	 * or the service is closing. Starts a thread reading commands from the server for the new connection.
 	 */
 	public void connectSocket() {
+		long begin = this.tracer.begin();
+		if(this.connectionState != ConnectionState.LOST) {
+			this.setConnectionState(ConnectionState.CONNECTING);
+		}
+
 		while(!closing && this.socket == null) {
 			try {
-				this.socket = new Socket("10.0.0.224", 2810);
-				
-			} catch (UnknownHostException ex) {
-				//This is ran when the host could not be determined.
-				ex.printStackTrace();
+				TlsConnector tlsConnector = this.tlsConnector;
+				if(tlsConnector == null && this.settingsStore.current().useTls) {
+					this.setConnectionState(ConnectionState.LOST);
+					throw new IOException("TLS could not be set up");
+				}
+				Socket socket = this.endpointSelector.connect();
+				this.plainSocket = socket;
+				if(tlsConnector != null) {
+					long handshakeBegin = this.tracer.begin();
+					try {
+						socket = tlsConnector.wrap(socket, this.endpointSelector.getCurrent());
+					} catch(IOException e) {
+						this.endpointSelector.reportFailure();
+						throw e;
+					} finally {
+						this.tracer.end(TRACE_HANDSHAKE, handshakeBegin);
+					}
+					Log.d(TAG, "TLS handshake took " + tlsConnector.getLastHandshakeMillis() + " ms, resumed "
+							+ tlsConnector.getResumedHandshakes() + " of " + tlsConnector.getHandshakes());
+				}
+				this.socket = socket;
 			} catch(IOException e) {
-				//This is ran when the socket fails to connect.
-				Log.d(TAG, e.getMessage());
+				//This is ran when every server failed to connect.
+				Log.d(TAG, "Could not connect to any server: " + e.getMessage());
 
-				//Sleeps for 10 seconds before retrying
-				try {
-					Thread.sleep(10000);
-				} catch(InterruptedException ex) {
-					ex.printStackTrace();
+				//Waits before retrying while streaming, unless the service is closing.
+				if(!closing && this.isStreaming()) {
+					try {
+						this.waitToReconnect(this.settingsStore.current().reconnectDelay);
+					} catch(InterruptedException ex) {
+						ex.printStackTrace();
+					}
 				}
-			} catch(SecurityException ex) {
-				//This is ran when the socket runs into security issues.
-				ex.printStackTrace();
-			} catch(IllegalArgumentException ex) {
-				//This is ran when the port number is invalid (not in-between 0 and 65535)
-				ex.printStackTrace();
+				if(!this.isStreaming()) {
+					//A burst doesn't retry, uploadBurst() puts the next one off instead of keeping the radio busy.
+					break;
+				}
+			} catch(RejectedExecutionException ex) {
+				//This is ran when the service closed while connecting.
+				break;
 			}
 		}
 
-		if(!closing) {
-			Log.d(TAG, "Connected");
+		if(closing || this.socket == null) {
+			this.tracer.end(TRACE_CONNECT, begin);
+			return;
 		}
 
-		this.lostConnection = false;
-		this.isConnected = true;
+		Log.d(TAG, "Connected to " + this.endpointSelector.getCurrent());
+		try {
+			Thread downlinkThread = new Thread(new Downlink(this.socket.getInputStream(), this.downlinkListener));
+			downlinkThread.setDaemon(true);
+			downlinkThread.start();
+		} catch(IOException e) {
+			Log.w(TAG, "Could not read from the server. " + e);
+		}
 
-		// Update notification content if running as a foreground service.
-		if (!closing && this.serviceIsRunningInForeground(this)) {
-			mNotificationManager.notify(NOTIFICATION_ID, getNotification());
+		this.stallWatchdog.onConnected();
+		this.setConnectionState(ConnectionState.CONNECTED);
+		this.publishMetrics();
+		this.tracer.end(TRACE_CONNECT, begin);
+	}
+
+	/**
+	 * Closes the socket. If the connection was lost rather than closed on purpose, the current server is marked as failed.
+	 */
+	private void closeSocket(boolean lost) {
+		Socket socket = this.socket;
+		this.socket = null;
+		this.plainSocket = null;
+		this.stallWatchdog.onDisconnected();
+		//Whoever was watching did so over this connection, the next one has to say so again.
+		this.remoteWatching = false;
+		if(this.reconnectRequested) {
+			//Dropped on purpose by dropConnection(), the write failing is not the server's fault.
+			this.reconnectRequested = false;
+			lost = false;
+		}
+		if(lost) {
+			this.endpointSelector.reportFailure();
+			this.lostConnections++;
+		}
+
+		if(socket != null) {
+			try {
+				socket.close();
+			} catch(IOException e) {
+				e.printStackTrace();
+			}
+		}
+		this.setConnectionState(lost ? ConnectionState.LOST : ConnectionState.IDLE);
+		this.publishMetrics();
+	}
+
+	/**
+	 * Called by the watchdog when the sender stopped making progress. Tears down the connection underneath the
+	 * sender, so its blocked or next write fails and it reconnects, counting it as a lost connection.
+	 */
+	private void onSenderStalled(String reason) {
+		Socket socket = this.plainSocket;
+		if(socket == null) {
+			return;
+		}
+		Log.w(TAG, "Sender stalled, reconnecting. " + reason);
+		this.setConnectionState(ConnectionState.STALLED);
+		this.publishMetrics();
+		try {
+			socket.close();
+		} catch(IOException e) {
+			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Used to send out locations from the location queue.
+	 * Closes the current connection from any thread so the sender connects again with the new settings.
+	 * The sender notices on its next write, and does not count it as a lost connection.
+	 */
+	private void dropConnection() {
+		Socket socket = this.socket;
+		if(socket == null) {
+			return;
+		}
+		this.reconnectRequested = true;
+		try {
+			socket.close();
+		} catch(IOException e) {
+			e.printStackTrace();
+		}
+		this.signalUpload();
+	}
+
+	/**
+	 * Sets up or tears down TLS and the datagram transport to match the settings.
+	 */
+	private void applyTransportSettings(Settings settings) {
+		if(settings.useTls && this.tlsConnector == null) {
+			try {
+				this.tlsConnector = new TlsConnector(this.createTlsContext(), HttpsURLConnection.getDefaultHostnameVerifier(), HANDSHAKE_TIMEOUT);
+			} catch(GeneralSecurityException | IOException e) {
+				//Never fall back to plaintext, connectSocket() refuses to connect until TLS is set up.
+				Log.e(TAG, "Could not set up TLS, not connecting. " + e);
+			}
+		} else if(!settings.useTls) {
+			this.tlsConnector = null;
+		}
+
+		if(settings.useDatagramTransport && this.datagramSender == null) {
+			try {
+				this.datagramSender = new DatagramSender();
+			} catch(SocketException e) {
+				Log.w(TAG, "Could not open datagram socket, sending everything over TCP. " + e);
+			}
+		} else if(!settings.useDatagramTransport && this.datagramSender != null) {
+			DatagramSender sender = this.datagramSender;
+			this.datagramSender = null;
+			sender.close();
+		}
+	}
+
+	/**
+	 * Applies changed settings to the running service. Called on the main thread.
+	 */
+	private void onSettingsChanged(Settings previous, Settings current) {
+		if(current.locationInterval != previous.locationInterval || current.fastestLocationInterval != previous.fastestLocationInterval) {
+			this.createLocationRequest();
+			if(current.requestingLocationUpdates && !this.stationary) {
+				this.resumeLocationUpdates();
+			}
+		}
+
+		if(current.stationaryDetection != previous.stationaryDetection) {
+			//On the service thread, so a stationary check that is already running finishes before the sensors stop.
+			this.mServiceHandler.post(() -> {
+				if(current.stationaryDetection) {
+					this.startMotionDetection();
+				} else {
+					this.stopMotionDetection();
+					if(this.stationary) {
+						this.stationary = false;
+						if(current.requestingLocationUpdates) {
+							this.resumeLocationUpdates();
+						}
+						this.signalUpload();
+					}
+				}
+			});
+		}
+		StationaryDetector detector = this.stationaryDetector;
+		if(detector != null) {
+			detector.setStationaryAfter(current.stationaryAfter);
+		}
+
+		this.endpointSelector.setConnectTimeout(current.connectTimeout);
+		this.stallWatchdog.setThresholds(current.stallWriteTimeout, current.stallQueueDelay, current.stallPeerTimeout);
+		this.applyTransportSettings(current);
+		if(!current.endpoints.equals(previous.endpoints) || current.useTls != previous.useTls) {
+			Log.d(TAG, "Server settings changed, reconnecting");
+			this.endpointSelector.setEndpoints(current.endpoints);
+			this.dropConnection();
+		}
+
+		if(current.tracing != previous.tracing) {
+			if(current.tracing) {
+				this.tracer.clear();
+				this.tracer.setEnabled(true);
+			} else {
+				this.tracer.setEnabled(false);
+				this.dumpTrace();
+			}
+		}
+
+		//Burst mode, interval or threshold may have changed, let the sender recheck.
+		this.signalUpload();
+	}
+
+	/**
+	 * Writes the recorded spans to a new trace file in the app's files, on a background thread.
+	 * The file opens in Perfetto (ui.perfetto.dev) or chrome://tracing.
+	 */
+	private void dumpTrace() {
+		File directory = this.getExternalFilesDir(null);
+		if(directory == null) {
+			directory = this.getFilesDir();
+		}
+		File file = new File(directory, "trace-" + System.currentTimeMillis() + ".json");
+		new Thread(() -> this.writeTrace(file), "TraceDump").start();
+	}
+
+	private void writeTrace(File file) {
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			this.tracer.writeJson(out);
+			Log.i(TAG, "Wrote " + this.tracer.size() + " trace spans to " + file);
+		} catch(IOException e) {
+			Log.w(TAG, "Could not write trace. " + e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void setConnectionState(ConnectionState state) {
+		if(this.connectionState != state) {
+			this.connectionState = state;
+			this.observers.publishConnectionState(state);
+			this.updateNotification();
+		}
+	}
+
+	/**
+	 * Sends the current counters to the observers, if there are any.
+	 */
+	private void publishMetrics() {
+		if(this.observers.hasObservers()) {
+			TlsConnector tls = this.tlsConnector;
+			StationaryDetector detector = this.stationaryDetector;
+			long now = System.currentTimeMillis();
+			ServiceMetrics.Builder metrics = new ServiceMetrics.Builder()
+					.setSentLocations(this.sentLocations)
+					.setDroppedLocations(this.droppedLocations.get())
+					.setSuppressedLocations(this.suppressedLocations)
+					.setQueuedLocations(this.locationQueue.size())
+					.setReconnects(this.lostConnections)
+					.setBursts(this.bursts)
+					.setStalls(this.stallWatchdog.getStalls())
+					.setEndpoint(this.endpointSelector.getCurrent());
+			if(tls != null) {
+				metrics.setHandshakes(tls.getHandshakes(), tls.getResumedHandshakes(), tls.getLastHandshakeMillis());
+			}
+			if(detector != null) {
+				metrics.setMovingMillis(detector.getMovingMillis(now)).setStationaryMillis(detector.getStationaryMillis(now));
+			}
+			this.observers.publishMetrics(metrics.build());
+		}
+	}
+
+	/**
+	 * Used to send out locations from the location queue, either live or in bursts.
 	 * Should be ran as a separate thread.
 	 */
 	public void readLocationQueue() {
 		while(!closing) {
-			if (this.socket != null && this.socket.isConnected()) {
-				try {
-					Location location = this.locationQueue.take();
+			try {
+				if(this.isStreaming()) {
+					this.streamLocation();
+				} else {
+					this.uploadBurst();
+				}
+			} catch(InterruptedException e) {
+				//Woken up to close or to switch upload mode.
+			}
+		}
+	}
 
-					byte[] buffer = new byte[15];
-					this.insertDoubleThree(buffer, 0, location.getBearing());
-					this.insertDoubleFive(buffer, 3, location.getLatitude());
-					this.insertDoubleFive(buffer, 8, location.getLongitude());
-					this.insertDoubleTwo(buffer, 13, location.getSpeed());
+	/**
+	 * Returns true if fixes should be sent as soon as they come in rather than in bursts.
+	 */
+	private boolean isStreaming() {
+		//Nothing new comes in while stationary, so there is no point keeping the connection open.
+		return !this.stationary && (!this.settingsStore.current().burstMode || this.localWatching || this.remoteWatching);
+	}
 
+	private void setLocalWatching(boolean watching) {
+		this.localWatching = watching;
+		this.signalUpload();
+	}
 
-					try {
-						OutputStream out = this.socket.getOutputStream();
-						out.write(buffer);
-
-						// Notify anyone listening for broadcasts about the new location.
-						Intent intent = new Intent(ACTION_BROADCAST);
-						intent.putExtra(EXTRA_LOCATION, location);
-						//LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(intent);
-					} catch(SocketException e) {
-						try {
-							this.lostConnection = true;
-
-							this.locationQueue.offer(location);
-							this.socket.getOutputStream().close();
-							this.socket.close();
-							this.socket = null;
-
-							// Update notification content if running as a foreground service.
-							if (this.serviceIsRunningInForeground(this)) {
-								mNotificationManager.notify(NOTIFICATION_ID, getNotification());
-							}
-
-							if(!this.closing) {
-								this.socketThread = new Thread(this::connectSocket);
-								this.socketThread.start();
-							}
-						} catch (IOException ex) {
-							ex.printStackTrace();
-						}
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				} catch (InterruptedException e) {
+	private void setRemoteWatching(boolean watching) {
+		Log.d(TAG, watching ? "Server is watching, streaming live" : "Server stopped watching");
+		this.remoteWatching = watching;
+		this.signalUpload();
+	}
 
+	private void signalUpload() {
+		this.uploadSignal.signal();
+	}
+
+	/**
+	 * Sends the next location from the queue as soon as it comes in, connecting first if needed.
+	 */
+	private void streamLocation() throws InterruptedException {
+		if(this.socket == null) {
+			this.connectSocket();
+			return;
+		}
+
+		long takeBegin = this.tracer.begin();
+		//Not a plain take(), so switching to bursts or going stationary wakes the sender even with no fix coming.
+		Location location = this.uploadSignal.poll(this.locationQueue, this.streaming);
+		this.tracer.end(TRACE_QUEUE_TAKE, takeBegin);
+		if(location == null) {
+			//No longer streaming, readLocationQueue() switches over to uploading in bursts.
+			return;
+		}
+
+		DatagramSender datagramSender = this.datagramSender;
+		if(datagramSender != null && this.sendDatagram(datagramSender, location)) {
+			this.publishMetrics();
+			return;
+		}
+
+		long encodeBegin = this.tracer.begin();
+		byte[] buffer = new byte[LocationDatagram.FIX_SIZE];
+		this.encodeLocation(buffer, 0, location);
+		this.tracer.end(TRACE_ENCODE, encodeBegin, 1);
+
+		try {
+			OutputStream out = this.socket.getOutputStream();
+			long writeBegin = this.tracer.begin();
+			this.stallWatchdog.onWriteStarted();
+			out.write(buffer);
+			this.stallWatchdog.onWriteFinished(true);
+			this.tracer.end(TRACE_WRITE, writeBegin, buffer.length);
+			this.sentLocations++;
+			this.publishMetrics();
+		} catch(IOException e) {
+			this.stallWatchdog.onWriteFinished(false);
+			Log.d(TAG, "Lost connection: " + e.getMessage());
+			this.requeue(location);
+			this.closeSocket(true);
+		}
+	}
+
+	/**
+	 * Waits until a burst is due, then connects, uploads every queued location in one write and disconnects again
+	 * so the radio can go idle. The connection lingers for a moment in case the server asks for live streaming.
+	 */
+	private void uploadBurst() throws InterruptedException {
+		if(this.socket != null) {
+			//Just switched over from streaming, let the connection go idle until the next burst.
+			this.closeSocket(false);
+		} else if(this.connectionState == ConnectionState.CONNECTING) {
+			this.setConnectionState(ConnectionState.IDLE);
+		}
+
+		synchronized(this.uploadSignal) {
+			long wait;
+			while(!closing && !this.isStreaming() && (wait = this.timeUntilBurst()) > 0) {
+				this.uploadSignal.wait(wait);
+			}
+		}
+		if(closing || this.isStreaming()) {
+			//Streaming sends whatever is queued anyway.
+			return;
+		}
+
+		this.connectSocket();
+		if(this.socket == null) {
+			if(!closing && !this.isStreaming()) {
+				this.backOffBurst();
+			}
+			return;
+		}
+
+		long takeBegin = this.tracer.begin();
+		this.locationQueue.drainTo(this.burstFixes);
+		this.tracer.end(TRACE_QUEUE_TAKE, takeBegin, this.burstFixes.size());
+
+		long encodeBegin = this.tracer.begin();
+		int size = this.burstFixes.size() * LocationDatagram.FIX_SIZE;
+		if(this.burstBuffer.length < size) {
+			this.burstBuffer = new byte[size];
+		}
+		for(int i = 0; i < this.burstFixes.size(); i++) {
+			this.encodeLocation(this.burstBuffer, i * LocationDatagram.FIX_SIZE, this.burstFixes.get(i));
+		}
+		this.tracer.end(TRACE_ENCODE, encodeBegin, this.burstFixes.size());
+
+		try {
+			long writeBegin = this.tracer.begin();
+			this.stallWatchdog.onWriteStarted();
+			this.socket.getOutputStream().write(this.burstBuffer, 0, size);
+			this.stallWatchdog.onWriteFinished(true);
+			this.tracer.end(TRACE_WRITE, writeBegin, size);
+			Log.d(TAG, "Uploaded burst of " + this.burstFixes.size() + " locations");
+			this.sentLocations += this.burstFixes.size();
+			this.bursts++;
+			this.burstFixes.clear();
+			this.lastBurst = System.currentTimeMillis();
+			this.burstBackoff = 0;
+			this.burstRetryAt = 0;
+			this.publishMetrics();
+
+			Thread.sleep(this.settingsStore.current().burstLinger);
+			if(!this.isStreaming()) {
+				this.closeSocket(false);
+			}
+		} catch(IOException e) {
+			this.stallWatchdog.onWriteFinished(false);
+			Log.d(TAG, "Lost connection during burst: " + e.getMessage());
+			for(int i = this.burstFixes.size() - 1; i >= 0; i--) {
+				this.requeue(this.burstFixes.get(i));
+			}
+			this.burstFixes.clear();
+			this.closeSocket(true);
+			this.backOffBurst();
+		}
+	}
+
+	/**
+	 * Puts off the next burst after one failed, by a burst interval the first time and twice as long after each
+	 * further failure, so an outage doesn't keep the radio busy with attempts. Fixes keep queueing meanwhile.
+	 */
+	private void backOffBurst() {
+		long interval = this.settingsStore.current().burstInterval;
+		this.burstBackoff = this.burstBackoff == 0 ? interval : Math.min(this.burstBackoff * 2, Math.max(interval, MAX_BURST_BACKOFF));
+		this.burstRetryAt = System.currentTimeMillis() + this.burstBackoff;
+		Log.d(TAG, "Burst failed, trying again in " + this.burstBackoff / 1000 + " s");
+		this.setConnectionState(ConnectionState.LOST);
+		this.publishMetrics();
+	}
+
+	/**
+	 * Puts a location that could not be sent back at the front of the queue, so the fixes stay in order.
+	 */
+	private void requeue(Location location) {
+		if(!this.locationQueue.offerFirst(location)) {
+			this.droppedLocations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns how many milliseconds until the next burst is due, or 0 or less if it is due now.
+	 */
+	private long timeUntilBurst() {
+		long retry = this.burstRetryAt - System.currentTimeMillis();
+		if(retry > 0) {
+			//Backing off after a failed burst, even if the threshold was reached.
+			return retry;
+		}
+		Settings settings = this.settingsStore.current();
+		int queued = this.locationQueue.size();
+		if(queued == 0) {
+			return settings.burstInterval;
+		}
+		if(queued >= settings.burstThreshold) {
+			return 0;
+		}
+		return this.lastBurst + settings.burstInterval - System.currentTimeMillis();
+	}
+
+	/**
+	 * Sends a live fix, along with any other live fixes waiting in the queue, as one datagram to the current server.
+	 * @return False if the fix is backlog or the datagram could not be sent, in which case it should go over TCP.
+	 */
+	private boolean sendDatagram(DatagramSender datagramSender, Location location) {
+		Endpoint endpoint = this.endpointSelector.getCurrent();
+		if(endpoint == null || !this.isLive(location)) {
+			return false;
+		}
+
+		int count = 0;
+		this.datagramFixes[count++] = location;
+		Location next;
+		while(count < LocationDatagram.MAX_FIXES && (next = this.locationQueue.peek()) != null && this.isLive(next)) {
+			this.datagramFixes[count++] = this.locationQueue.poll();
+		}
+
+		try {
+			this.sendFixes(datagramSender, endpoint, count);
+			return true;
+		} catch(IOException e) {
+			Log.d(TAG, "Could not send datagram, falling back to TCP. " + e.getMessage());
+			//The first fix goes over TCP straight away, the rest wait at the front of the queue again.
+			for(int i = count - 1; i >= 1; i--) {
+				this.requeue(this.datagramFixes[i]);
+			}
+			return false;
+		} finally {
+			for(int i = 0; i < count; i++) {
+				this.datagramFixes[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Waits out the reconnect delay. While TCP is down, live fixes still go out as datagrams to the server we were
+	 * last connected to, so whoever is watching keeps seeing the device move. The backlog waits for TCP.
+	 */
+	private void waitToReconnect(long delay) throws InterruptedException {
+		long until = System.currentTimeMillis() + delay;
+		//Checked and waited on under the signal's lock, so a fix that comes in meanwhile is never missed.
+		synchronized(this.uploadSignal) {
+			long wait;
+			while(!closing && this.isStreaming() && (wait = until - System.currentTimeMillis()) > 0) {
+				DatagramSender datagramSender = this.datagramSender;
+				if(datagramSender == null || !this.isStreaming() || !this.sendLiveDatagram(datagramSender)) {
+					this.uploadSignal.wait(wait);
 				}
 			}
 		}
 	}
 
-	public void insertDoubleThree(byte[] buffer, int start, double value) {
-		int ivalue = (int) value;
-		if(ivalue > Byte.MAX_VALUE) {
-			buffer[start] = (byte) (ivalue - Byte.MAX_VALUE);
-			buffer[start + 1] = Byte.MAX_VALUE;
-		} else if(ivalue < Byte.MIN_VALUE) {
-			buffer[start] = (byte) (ivalue - Byte.MIN_VALUE);
-			buffer[start + 1] = Byte.MIN_VALUE;
-		} else {
-			buffer[start] = 0;
-			buffer[start + 1] = (byte) value;
+	/**
+	 * Sends the newest live fixes in the queue as one datagram, leaving older ones for TCP.
+	 * @return True if anything was sent.
+	 */
+	private boolean sendLiveDatagram(DatagramSender datagramSender) {
+		Endpoint endpoint = this.endpointSelector.getCurrent();
+		if(endpoint == null) {
+			return false;
 		}
 
-		int fvalue = ((int) (Math.abs(value) * 100)) % 100;
-		buffer[start + 2] = (byte) fvalue;
+		int count = 0;
+		Location newest;
+		while(count < LocationDatagram.MAX_FIXES && (newest = this.locationQueue.peekLast()) != null && this.isLive(newest)) {
+			this.datagramFixes[count++] = this.locationQueue.pollLast();
+		}
+		if(count == 0) {
+			return false;
+		}
+		//Taken newest first, the datagram has them oldest first.
+		for(int i = 0, j = count - 1; i < j; i++, j--) {
+			Location location = this.datagramFixes[i];
+			this.datagramFixes[i] = this.datagramFixes[j];
+			this.datagramFixes[j] = location;
+		}
+
+		try {
+			this.sendFixes(datagramSender, endpoint, count);
+			this.publishMetrics();
+			return true;
+		} catch(IOException e) {
+			Log.d(TAG, "Could not send datagram while disconnected. " + e.getMessage());
+			for(int i = 0; i < count; i++) {
+				if(!this.locationQueue.offerLast(this.datagramFixes[i])) {
+					this.droppedLocations.incrementAndGet();
+				}
+			}
+			return false;
+		} finally {
+			for(int i = 0; i < count; i++) {
+				this.datagramFixes[i] = null;
+			}
+		}
 	}
 
-	public void insertDoubleFive(byte[] buffer, int start, double value) {
-		int ivalue = (int) value;
-		if(ivalue > Byte.MAX_VALUE) {
-			buffer[start] = (byte) (ivalue - Byte.MAX_VALUE);
-			buffer[start + 1] = Byte.MAX_VALUE;
-		} else if(ivalue < Byte.MIN_VALUE) {
-			buffer[start] = (byte) (ivalue - Byte.MIN_VALUE);
-			buffer[start + 1] = Byte.MIN_VALUE;
-		} else {
-			buffer[start] = 0;
-			buffer[start + 1] = (byte) value;
+	/**
+	 * Encodes the first count fixes of datagramFixes into one datagram and sends it to the endpoint.
+	 */
+	private void sendFixes(DatagramSender datagramSender, Endpoint endpoint, int count) throws IOException {
+		long encodeBegin = this.tracer.begin();
+		byte[] buffer = datagramSender.getBuffer();
+		for(int i = 0; i < count; i++) {
+			this.encodeLocation(buffer, LocationDatagram.HEADER_SIZE + i * LocationDatagram.FIX_SIZE, this.datagramFixes[i]);
 		}
+		this.tracer.end(TRACE_ENCODE, encodeBegin, count);
 
-		int fvalue = ((int) (value * 100)) % 100;
-		int fvalue2 = ((int) (value * 10000)) % 100;
-		int fvalue3 = ((int) (value * 1000000)) % 100;
+		if(endpoint != this.datagramEndpoint) {
+			this.datagramAddress = new InetSocketAddress(endpoint.getHost(), endpoint.getPort());
+			this.datagramEndpoint = endpoint;
+		}
+		if(this.datagramAddress.isUnresolved()) {
+			this.datagramEndpoint = null;
+			throw new IOException("Could not resolve " + endpoint.getHost());
+		}
+		long sendBegin = this.tracer.begin();
+		datagramSender.send(this.datagramAddress, count);
+		this.stallWatchdog.onWriteFinished(true);
+		this.tracer.end(TRACE_DATAGRAM, sendBegin, count);
+		this.sentLocations += count;
+	}
 
-		buffer[start + 2] = (byte) fvalue;
-		buffer[start + 3] = (byte) fvalue2;
-		buffer[start + 4] = (byte) fvalue3;
+	private boolean isLive(Location location) {
+		return System.currentTimeMillis() - location.getTime() <= this.settingsStore.current().liveFixMaxAge;
 	}
 
-	public void insertDoubleTwo(byte[] buffer, int start, double value) {
-		int ivalue = (int) value;
-		buffer[start] = (byte) ivalue;
+	/**
+	 * Writes a location to the buffer as a 15 byte fix: bearing, latitude, longitude and speed.
+	 * The layout is owned by the ingest module, so the server decodes exactly what is sent here.
+	 */
+	public void encodeLocation(byte[] buffer, int start, Location location) {
+		FixEncoder.encode(buffer, start, location.getLatitude(), location.getLongitude(), location.getBearing(), location.getSpeed());
+	}
 
-		int fvalue = ((int) (value * 100)) % 100;
-		buffer[start + 1] = (byte) fvalue;
+	/**
+	 * Updates the notification content if running as a foreground service.
+	 */
+	private void updateNotification() {
+		if(!closing && this.serviceIsRunningInForeground(this)) {
+			mNotificationManager.notify(NOTIFICATION_ID, getNotification());
+		}
 	}
 
 	private Notification getNotification() {
 		Intent intent = new Intent(this, LocationService.class);
 		String message;
 
-		if(this.lostConnection) {
-			message = "Lost connection. Trying to reconnect.";
-		} else if(this.isConnected) {
-			message = "Connected to server.";
-		} else {
-			message = "Trying to connect to server.";
+		switch(this.connectionState) {
+			case LOST:
+				message = "Lost connection. Trying to reconnect.";
+				break;
+			case CONNECTED:
+				message = "Connected to server.";
+				break;
+			case IDLE:
+				message = this.stationary ? "Paused while the phone is still." : "Saving locations for the next upload.";
+				break;
+			case STALLED:
+				message = "Connection stalled. Reconnecting.";
+				break;
+			default:
+				message = "Trying to connect to server.";
+				break;
 		}
 
 		// Extra to help us figure out if we arrived in onStartCommand via the notification or not.
@@ -1,11 +1,9 @@
 package com.tim.gotthere_app;
 
 import android.Manifest;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -15,11 +13,12 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.util.Log;
-import android.widget.Toast;
+import android.widget.TextView;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.preference.PreferenceFragmentCompat;
 
 /**
@@ -30,22 +29,43 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 	private static final String TAG = MainActivity.class.getSimpleName();
 	private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
 
-
-	private MyReceiver myReceiver;
+	//Shows the service's connection state, last location and metrics.
+	private TextView statusText;
+	private ConnectionState connectionState;
+	private Location lastLocation;
+	private ServiceMetrics metrics;
 
 	//The instance of the service when it is bound to the app.
 	private LocationService mService = null;
 	//True when the service is bound to the app, false otherwise.
 	private boolean mBound = false;
 
-	private class MyReceiver extends BroadcastReceiver {
+	/**
+	 * Receives updates from the bound service on the main thread.
+	 */
+	private final ServiceObservers.Observer mObserver = new ServiceObservers.Observer() {
+		@Override
+		public void onLocation(Location location) {
+			lastLocation = location;
+			updateStatus();
+		}
+
+		@Override
+		public void onConnectionState(ConnectionState state) {
+			connectionState = state;
+			updateStatus();
+		}
+
 		@Override
-		public void onReceive(Context context, Intent intent) {
-			Location location = intent.getParcelableExtra(LocationService.EXTRA_LOCATION);
-			if (location != null) {
-				Toast.makeText(MainActivity.this, getLocationText(location), Toast.LENGTH_SHORT).show();
-			}
+		public void onMetrics(ServiceMetrics metrics) {
+			MainActivity.this.metrics = metrics;
+			updateStatus();
 		}
+	};
+
+	private void updateStatus() {
+		this.statusText.setText((this.connectionState == null ? "" : this.connectionState + "\n")
+				+ getLocationText(this.lastLocation) + (this.metrics == null ? "" : "\n" + this.metrics));
 	}
 
 	public static String getLocationText(Location location) {
@@ -67,6 +87,7 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 			//
 			LocationService.LocalBinder binder = (LocationService.LocalBinder) service;
 			mService = binder.getService();
+			mService.addObserver(mObserver, ContextCompat.getMainExecutor(MainActivity.this));
 			mService.requestLocationUpdates();
 			mBound = true;
 		}
@@ -97,9 +118,11 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
-		this.myReceiver = new MyReceiver();
 		this.setContentView(R.layout.activity_main);
-		//this.getSupportFragmentManager().beginTransaction().replace(R.id.settings_container, new MySettingsFragment()).commit();
+		this.statusText = this.findViewById(R.id.status_text);
+		if(savedInstanceState == null) {
+			this.getSupportFragmentManager().beginTransaction().replace(R.id.settings_container, new MySettingsFragment()).commit();
+		}
 
 		//if(Util.requestingLocationUpdates(this)) {
 			this.handlePermissions();
@@ -116,8 +139,6 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 		//PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(this);
 
 		this.bindService(new Intent(this, LocationService.class), this.mServiceConnection, Context.BIND_AUTO_CREATE);
-
-		//LocalBroadcastManager.getInstance(this).registerReceiver(this.myReceiver, new IntentFilter(LocationService.ACTION_BROADCAST)); //Look at this
 	}
 
 	/**
@@ -126,9 +147,8 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 	 */
 	@Override
 	protected void onStop() {
-		//LocalBroadcastManager.getInstance(this).unregisterReceiver(this.myReceiver);
-
 		if(mBound) {
+			mService.removeObserver(mObserver);
 			this.unbindService(mServiceConnection);
 			mBound = false;
 		}
@@ -166,7 +186,8 @@ public class MainActivity extends AppCompatActivity implements SharedPreferences
 		}
 	}
 
-	public class MySettingsFragment extends PreferenceFragmentCompat {
+	//Static so the fragment manager can recreate it after a configuration change.
+	public static class MySettingsFragment extends PreferenceFragmentCompat {
 		@Override
 		public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
 			this.setPreferencesFromResource(R.xml.preferences, rootKey);
@@ -0,0 +1,136 @@
+package com.tim.gotthere_app;
+
+/**
+ * A snapshot of the service's counters. Only built when someone is observing the service.
+ */
+public class ServiceMetrics {
+
+	public final long sentLocations;
+	public final long droppedLocations;
+	//Fixes not sent because the device was sitting inside a known zone.
+	public final long suppressedLocations;
+	public final int queuedLocations;
+	public final long reconnects;
+	public final long bursts;
+	//Times the connection was torn down because the sender stopped making progress.
+	public final long stalls;
+	//The server of the current or last connection, null if nothing has connected yet.
+	public final Endpoint endpoint;
+	//TLS handshakes so far, how many of them resumed a session, and how long the last one took (-1 without TLS).
+	public final long handshakes;
+	public final long resumedHandshakes;
+	public final long lastHandshakeMillis;
+	//Time spent moving and sitting still with location updates paused, both 0 without stationary detection.
+	public final long movingMillis;
+	public final long stationaryMillis;
+
+	private ServiceMetrics(Builder builder) {
+		this.sentLocations = builder.sentLocations;
+		this.droppedLocations = builder.droppedLocations;
+		this.suppressedLocations = builder.suppressedLocations;
+		this.queuedLocations = builder.queuedLocations;
+		this.reconnects = builder.reconnects;
+		this.bursts = builder.bursts;
+		this.stalls = builder.stalls;
+		this.endpoint = builder.endpoint;
+		this.handshakes = builder.handshakes;
+		this.resumedHandshakes = builder.resumedHandshakes;
+		this.lastHandshakeMillis = builder.lastHandshakeMillis;
+		this.movingMillis = builder.movingMillis;
+		this.stationaryMillis = builder.stationaryMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "Sent " + this.sentLocations + ", queued " + this.queuedLocations + ", dropped " + this.droppedLocations
+				+ ", suppressed " + this.suppressedLocations
+				+ ", reconnects " + this.reconnects + ", bursts " + this.bursts
+				+ (this.stalls == 0 ? "" : ", stalls " + this.stalls)
+				+ (this.endpoint == null ? "" : ", server " + this.endpoint)
+				+ (this.handshakes == 0 ? "" : ", TLS resumed " + this.resumedHandshakes + "/" + this.handshakes
+						+ " (last " + this.lastHandshakeMillis + " ms)")
+				+ (this.movingMillis + this.stationaryMillis == 0 ? "" : ", moving " + this.movingMillis / 1000
+						+ " s, stationary " + this.stationaryMillis / 1000 + " s");
+	}
+
+	/**
+	 * Builds a snapshot. Anything not set stays 0, or null for the endpoint and -1 for the last handshake.
+	 */
+	public static class Builder {
+
+		private long sentLocations;
+		private long droppedLocations;
+		private long suppressedLocations;
+		private int queuedLocations;
+		private long reconnects;
+		private long bursts;
+		private long stalls;
+		private Endpoint endpoint;
+		private long handshakes;
+		private long resumedHandshakes;
+		private long lastHandshakeMillis = -1;
+		private long movingMillis;
+		private long stationaryMillis;
+
+		public Builder setSentLocations(long sentLocations) {
+			this.sentLocations = sentLocations;
+			return this;
+		}
+
+		public Builder setDroppedLocations(long droppedLocations) {
+			this.droppedLocations = droppedLocations;
+			return this;
+		}
+
+		public Builder setSuppressedLocations(long suppressedLocations) {
+			this.suppressedLocations = suppressedLocations;
+			return this;
+		}
+
+		public Builder setQueuedLocations(int queuedLocations) {
+			this.queuedLocations = queuedLocations;
+			return this;
+		}
+
+		public Builder setReconnects(long reconnects) {
+			this.reconnects = reconnects;
+			return this;
+		}
+
+		public Builder setBursts(long bursts) {
+			this.bursts = bursts;
+			return this;
+		}
+
+		public Builder setStalls(long stalls) {
+			this.stalls = stalls;
+			return this;
+		}
+
+		public Builder setEndpoint(Endpoint endpoint) {
+			this.endpoint = endpoint;
+			return this;
+		}
+
+		public Builder setHandshakes(long handshakes, long resumedHandshakes, long lastHandshakeMillis) {
+			this.handshakes = handshakes;
+			this.resumedHandshakes = resumedHandshakes;
+			this.lastHandshakeMillis = lastHandshakeMillis;
+			return this;
+		}
+
+		public Builder setMovingMillis(long movingMillis) {
+			this.movingMillis = movingMillis;
+			return this;
+		}
+
+		public Builder setStationaryMillis(long stationaryMillis) {
+			this.stationaryMillis = stationaryMillis;
+			return this;
+		}
+
+		public ServiceMetrics build() {
+			return new ServiceMetrics(this);
+		}
+	}
+}
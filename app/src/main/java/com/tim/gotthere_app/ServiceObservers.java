@@ -0,0 +1,131 @@
+package com.tim.gotthere_app;
+
+import android.location.Location;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the service's fixes, connection state and metrics to observers in the same process.
+ * Updates are conflated per observer: an observer that falls behind only sees the latest value of each kind,
+ * and at most one delivery per observer is waiting on its executor at a time.
+ */
+public class ServiceObservers {
+
+	public interface Observer {
+		void onLocation(Location location);
+
+		void onConnectionState(ConnectionState state);
+
+		void onMetrics(ServiceMetrics metrics);
+	}
+
+	private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+
+	//The latest values, handed to new observers straight away.
+	private volatile Location lastLocation;
+	private volatile ConnectionState lastState;
+	private volatile ServiceMetrics lastMetrics;
+
+	/**
+	 * Starts delivering updates to the observer on the given executor, beginning with the latest values.
+	 */
+	public void register(Observer observer, Executor executor) {
+		Registration registration = new Registration(observer, executor);
+		this.registrations.add(registration);
+		registration.location.set(this.lastLocation);
+		registration.state.set(this.lastState);
+		registration.metrics.set(this.lastMetrics);
+		registration.schedule();
+	}
+
+	/**
+	 * Stops delivering updates to the observer, including any that are already waiting on its executor.
+	 */
+	public void unregister(Observer observer) {
+		for(Registration registration : this.registrations) {
+			if(registration.observer == observer) {
+				registration.active = false;
+				this.registrations.remove(registration);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if anyone is observing, so callers can skip building updates nobody will see.
+	 */
+	public boolean hasObservers() {
+		return !this.registrations.isEmpty();
+	}
+
+	public void publishLocation(Location location) {
+		this.lastLocation = location;
+		for(Registration registration : this.registrations) {
+			registration.location.set(location);
+			registration.schedule();
+		}
+	}
+
+	public void publishConnectionState(ConnectionState state) {
+		this.lastState = state;
+		for(Registration registration : this.registrations) {
+			registration.state.set(state);
+			registration.schedule();
+		}
+	}
+
+	public void publishMetrics(ServiceMetrics metrics) {
+		this.lastMetrics = metrics;
+		for(Registration registration : this.registrations) {
+			registration.metrics.set(metrics);
+			registration.schedule();
+		}
+	}
+
+	private static class Registration implements Runnable {
+		private final Observer observer;
+		private final Executor executor;
+		private final AtomicReference<Location> location = new AtomicReference<>();
+		private final AtomicReference<ConnectionState> state = new AtomicReference<>();
+		private final AtomicReference<ServiceMetrics> metrics = new AtomicReference<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile boolean active = true;
+
+		Registration(Observer observer, Executor executor) {
+			this.observer = observer;
+			this.executor = executor;
+		}
+
+		void schedule() {
+			if(this.scheduled.compareAndSet(false, true)) {
+				this.executor.execute(this);
+			}
+		}
+
+		/**
+		 * Delivers whatever is pending. Cleared before reading, so an update published meanwhile schedules another run.
+		 */
+		@Override
+		public void run() {
+			this.scheduled.set(false);
+			if(!this.active) {
+				return;
+			}
+
+			ConnectionState state = this.state.getAndSet(null);
+			if(state != null) {
+				this.observer.onConnectionState(state);
+			}
+			Location location = this.location.getAndSet(null);
+			if(location != null) {
+				this.observer.onLocation(location);
+			}
+			ServiceMetrics metrics = this.metrics.getAndSet(null);
+			if(metrics != null) {
+				this.observer.onMetrics(metrics);
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.tim.gotthere_app;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the app's settings, read from the preference values.
+ * Values that are missing or can't be parsed fall back to their defaults, so a typo in the preference screen never
+ * stops the service. Times are stored in the preferences in seconds or minutes and kept here in milliseconds.
+ */
+public final class Settings {
+
+	public static final String KEY_SERVER_ENDPOINTS = "server_endpoints";
+	public static final String KEY_USE_TLS = "use_tls";
+	public static final String KEY_USE_DATAGRAM_TRANSPORT = "use_datagram_transport";
+	public static final String KEY_CONNECT_TIMEOUT = "connect_timeout_seconds";
+	public static final String KEY_RECONNECT_DELAY = "reconnect_delay_seconds";
+	public static final String KEY_LOCATION_INTERVAL = "location_interval_seconds";
+	public static final String KEY_FASTEST_LOCATION_INTERVAL = "fastest_location_interval_seconds";
+	public static final String KEY_LIVE_FIX_MAX_AGE = "live_fix_max_age_seconds";
+	public static final String KEY_BURST_MODE = "burst_mode";
+	public static final String KEY_BURST_INTERVAL = "burst_interval_minutes";
+	public static final String KEY_BURST_THRESHOLD = "burst_threshold";
+	public static final String KEY_BURST_LINGER = "burst_linger_seconds";
+	public static final String KEY_ZONE_HEARTBEAT = "zone_heartbeat_minutes";
+	public static final String KEY_QUEUE_CAPACITY = "queue_capacity";
+	public static final String KEY_STALL_WRITE_TIMEOUT = "stall_write_timeout_seconds";
+	public static final String KEY_STALL_QUEUE_DELAY = "stall_queue_delay_seconds";
+	public static final String KEY_STALL_PEER_TIMEOUT = "stall_peer_timeout_seconds";
+	public static final String KEY_STATIONARY_DETECTION = "stationary_detection";
+	public static final String KEY_STATIONARY_AFTER = "stationary_after_minutes";
+	public static final String KEY_TRACING = "tracing";
+
+	public static final String DEFAULT_SERVER_ENDPOINTS = "10.0.0.224:2810";
+	//The most locations the queue can be set to hold.
+	public static final int MAX_QUEUE_CAPACITY = 4096;
+
+	public static final Settings DEFAULTS = from(Collections.<String, Object>emptyMap());
+
+	public final boolean requestingLocationUpdates;
+
+	//Connection
+	public final List<Endpoint> endpoints;
+	public final boolean useTls;
+	//Never on together with TLS, datagrams are not encrypted.
+	public final boolean useDatagramTransport;
+	public final int connectTimeout;
+	public final long reconnectDelay;
+	//How long a write may block, and how long a live fix may wait with nothing written, before reconnecting.
+	public final long stallWriteTimeout;
+	public final long stallQueueDelay;
+	//How long a server that pings may stay silent before reconnecting.
+	public final long stallPeerTimeout;
+
+	//Sampling
+	public final long locationInterval;
+	public final long fastestLocationInterval;
+	//Pauses location updates and lets the connection idle while the device sits still for this long.
+	public final boolean stationaryDetection;
+	public final long stationaryAfter;
+
+	//Batching
+	public final long liveFixMaxAge;
+	public final boolean burstMode;
+	public final long burstInterval;
+	public final int burstThreshold;
+	public final long burstLinger;
+	public final long zoneHeartbeat;
+	public final int queueCapacity;
+
+	//Diagnostics
+	public final boolean tracing;
+
+	private Settings(Map<String, ?> values) {
+		this.requestingLocationUpdates = getBoolean(values, Util.KEY_REQUESTING_LOCATION_UPDATES, false);
+
+		this.endpoints = Collections.unmodifiableList(getEndpoints(values));
+		this.useTls = getBoolean(values, KEY_USE_TLS, false);
+		this.useDatagramTransport = !this.useTls && getBoolean(values, KEY_USE_DATAGRAM_TRANSPORT, false);
+		this.connectTimeout = getInt(values, KEY_CONNECT_TIMEOUT, 3, 1, 60) * 1000;
+		this.reconnectDelay = getInt(values, KEY_RECONNECT_DELAY, 10, 1, 3600) * 1000L;
+		this.stallWriteTimeout = getInt(values, KEY_STALL_WRITE_TIMEOUT, 30, 1, 3600) * 1000L;
+		this.stallQueueDelay = getInt(values, KEY_STALL_QUEUE_DELAY, 120, 10, 3600) * 1000L;
+		this.stallPeerTimeout = getInt(values, KEY_STALL_PEER_TIMEOUT, 90, 10, 3600) * 1000L;
+
+		this.locationInterval = getInt(values, KEY_LOCATION_INTERVAL, 30, 1, 3600) * 1000L;
+		this.fastestLocationInterval = Math.min(getInt(values, KEY_FASTEST_LOCATION_INTERVAL, 15, 1, 3600) * 1000L, this.locationInterval);
+		this.stationaryDetection = getBoolean(values, KEY_STATIONARY_DETECTION, true);
+		this.stationaryAfter = getInt(values, KEY_STATIONARY_AFTER, 5, 1, 24 * 60) * 60 * 1000L;
+
+		this.liveFixMaxAge = getInt(values, KEY_LIVE_FIX_MAX_AGE, 10, 1, 3600) * 1000L;
+		//Off by default: the fixes carry no time, so the server can only stamp a burst with its arrival time.
+		this.burstMode = getBoolean(values, KEY_BURST_MODE, false);
+		this.burstInterval = getInt(values, KEY_BURST_INTERVAL, 5, 1, 24 * 60) * 60 * 1000L;
+		this.burstThreshold = getInt(values, KEY_BURST_THRESHOLD, 20, 1, MAX_QUEUE_CAPACITY);
+		this.burstLinger = getInt(values, KEY_BURST_LINGER, 2, 0, 60) * 1000L;
+		this.zoneHeartbeat = getInt(values, KEY_ZONE_HEARTBEAT, 10, 1, 24 * 60) * 60 * 1000L;
+		this.queueCapacity = getInt(values, KEY_QUEUE_CAPACITY, 512, 1, MAX_QUEUE_CAPACITY);
+
+		this.tracing = getBoolean(values, KEY_TRACING, false);
+	}
+
+	/**
+	 * Reads the settings from the preference values, as returned by SharedPreferences.getAll().
+	 */
+	public static Settings from(Map<String, ?> values) {
+		return new Settings(values);
+	}
+
+	private static boolean getBoolean(Map<String, ?> values, String key, boolean defaultValue) {
+		Object value = values.get(key);
+		return value instanceof Boolean ? (Boolean) value : defaultValue;
+	}
+
+	/**
+	 * Reads a whole number, which the preference screen stores as a string, clamped to the given range.
+	 */
+	private static int getInt(Map<String, ?> values, String key, int defaultValue, int min, int max) {
+		Object value = values.get(key);
+		int result = defaultValue;
+		if(value instanceof Integer) {
+			result = (Integer) value;
+		} else if(value instanceof String) {
+			try {
+				result = Integer.parseInt(((String) value).trim());
+			} catch(NumberFormatException e) {
+				//Keep the default.
+			}
+		}
+		return Math.max(min, Math.min(max, result));
+	}
+
+	private static List<Endpoint> getEndpoints(Map<String, ?> values) {
+		Object value = values.get(KEY_SERVER_ENDPOINTS);
+		if(value instanceof String) {
+			try {
+				List<Endpoint> endpoints = Endpoint.parseList((String) value);
+				if(!endpoints.isEmpty()) {
+					return endpoints;
+				}
+			} catch(IllegalArgumentException e) {
+				//Keep the default.
+			}
+		}
+		return Endpoint.parseList(DEFAULT_SERVER_ENDPOINTS);
+	}
+}
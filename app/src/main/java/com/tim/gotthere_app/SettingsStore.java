@@ -0,0 +1,73 @@
+package com.tim.gotthere_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current {@link Settings} in memory. The snapshot is rebuilt and swapped in whenever a preference changes,
+ * so reading the settings is a single volatile read and never touches the disk.
+ */
+public final class SettingsStore implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+	public interface Listener {
+		/**
+		 * Called on the main thread after the settings changed.
+		 */
+		void onSettingsChanged(Settings previous, Settings current);
+	}
+
+	private static SettingsStore instance;
+
+	private final SharedPreferences preferences;
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	private volatile Settings current;
+
+	private SettingsStore(Context context) {
+		this.preferences = PreferenceManager.getDefaultSharedPreferences(context);
+		this.current = Settings.from(this.preferences.getAll());
+		//SharedPreferences only keeps a weak reference, the static instance keeps this one alive.
+		this.preferences.registerOnSharedPreferenceChangeListener(this);
+	}
+
+	public static synchronized SettingsStore get(Context context) {
+		if(instance == null) {
+			instance = new SettingsStore(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	public Settings current() {
+		return this.current;
+	}
+
+	/**
+	 * Stores the location updates state. Goes through the preferences like any other change, so the snapshot and
+	 * listeners pick it up too.
+	 */
+	public void setRequestingLocationUpdates(boolean requestingLocationUpdates) {
+		this.preferences.edit()
+				.putBoolean(Util.KEY_REQUESTING_LOCATION_UPDATES, requestingLocationUpdates)
+				.apply();
+	}
+
+	public void addListener(Listener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+		Settings previous = this.current;
+		this.current = Settings.from(sharedPreferences.getAll());
+		for(Listener listener : this.listeners) {
+			listener.onSettingsChanged(previous, this.current);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.tim.gotthere_app;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices when the sender stops making progress, which a half-open connection can cause without any error:
+ * a write blocks once the socket buffers fill up, or writes stop happening while fixes pile up in the queue.
+ * The sender reports its writes, and a background thread checks every so often whether
+ * <ul>
+ *     <li>a write has been blocked for longer than the write timeout, or</li>
+ *     <li>the oldest fix waiting to be sent is older than the queue delay, with no write or connect in that time, or</li>
+ *     <li>the server pinged on this connection before but has been silent for longer than the peer timeout.</li>
+ * </ul>
+ * Writes of a single fix never fill the socket buffers, so on a dead link they keep succeeding and only the last check
+ * notices. Servers that never ping are left to the first two.
+ * If so, the listener is told to tear down the connection, which unblocks the sender so it can reconnect.
+ */
+public class StallWatchdog {
+
+	public interface Listener {
+		/**
+		 * Returns the time of the oldest fix that should already have been sent, or -1 if nothing is overdue.
+		 * Fixes held back on purpose, such as between bursts, don't count.
+		 */
+		long getOldestPending();
+
+		/**
+		 * Called on the watchdog thread when the sender stalled. Should close the connection.
+		 */
+		void onStall(String reason);
+	}
+
+	private final Listener listener;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "StallWatchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile long writeTimeout;
+	private volatile long maxQueueDelay;
+	private volatile long peerTimeout;
+
+	//When the current write started, 0 while not writing.
+	private volatile long writingSince = 0;
+	//The last successful write or connect.
+	private volatile long lastProgress;
+	//The last thing heard from the server, 0 if it hasn't sent anything on this connection yet.
+	private volatile long lastPeerActivity = 0;
+	private boolean connected = false;
+	private volatile int stalls = 0;
+
+	/**
+	 * @param writeTimeout How long a single write may block, in milliseconds.
+	 * @param maxQueueDelay How old the oldest overdue fix may get without the sender writing anything, in milliseconds.
+	 * @param peerTimeout How long a server that pings may stay silent, in milliseconds.
+	 */
+	public StallWatchdog(Listener listener, long writeTimeout, long maxQueueDelay, long peerTimeout) {
+		this.listener = listener;
+		this.setThresholds(writeTimeout, maxQueueDelay, peerTimeout);
+		this.lastProgress = System.currentTimeMillis();
+	}
+
+	public void setThresholds(long writeTimeout, long maxQueueDelay, long peerTimeout) {
+		this.writeTimeout = writeTimeout;
+		this.maxQueueDelay = maxQueueDelay;
+		this.peerTimeout = peerTimeout;
+	}
+
+	/**
+	 * Starts checking on a background thread.
+	 * @param period How often to check, in milliseconds.
+	 */
+	public void start(long period) {
+		this.executor.scheduleWithFixedDelay(() -> this.check(System.currentTimeMillis()), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Returns how many stalls were found so far.
+	 */
+	public int getStalls() {
+		return this.stalls;
+	}
+
+	public synchronized void onConnected() {
+		this.lastProgress = System.currentTimeMillis();
+		this.lastPeerActivity = 0;
+		this.connected = true;
+	}
+
+	/**
+	 * Called when the connection is closed, so the server's silence afterwards isn't taken for a stall.
+	 */
+	public synchronized void onDisconnected() {
+		this.lastPeerActivity = 0;
+		this.connected = false;
+	}
+
+	/**
+	 * Called whenever something arrives from the server. Ignored between connections, when it can only come from
+	 * the last one's reader catching up.
+	 */
+	public synchronized void onPeerActivity() {
+		if(this.connected) {
+			this.lastPeerActivity = System.currentTimeMillis();
+		}
+	}
+
+	public void onWriteStarted() {
+		this.writingSince = System.currentTimeMillis();
+	}
+
+	/**
+	 * Called after a write, whether it worked or not.
+	 */
+	public void onWriteFinished(boolean written) {
+		this.writingSince = 0;
+		if(written) {
+			this.lastProgress = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Checks for a stall now, telling the listener if there is one.
+	 * @return True if the sender stalled.
+	 */
+	public boolean check(long now) {
+		String reason = null;
+		long writingSince = this.writingSince;
+		long lastPeerActivity = this.lastPeerActivity;
+		if(writingSince != 0 && now - writingSince > this.writeTimeout) {
+			reason = "Write blocked for " + (now - writingSince) + " ms";
+		} else if(lastPeerActivity != 0 && now - lastPeerActivity > this.peerTimeout) {
+			reason = "Nothing heard from the server for " + (now - lastPeerActivity) + " ms";
+		} else {
+			long oldest = this.listener.getOldestPending();
+			if(oldest >= 0 && now - oldest > this.maxQueueDelay && now - this.lastProgress > this.maxQueueDelay) {
+				reason = "Oldest fix waiting " + (now - oldest) + " ms, nothing written for " + (now - this.lastProgress) + " ms";
+			}
+		}
+		if(reason == null) {
+			return false;
+		}
+
+		//Start over, so the same stall isn't reported again while the sender reconnects.
+		this.writingSince = 0;
+		this.lastProgress = now;
+		this.lastPeerActivity = 0;
+		this.stalls++;
+		this.listener.onStall(reason);
+		return true;
+	}
+}
@@ -0,0 +1,120 @@
+package com.tim.gotthere_app;
+
+/**
+ * Decides whether the device is sitting still, from motion reported by the sensors. Any motion makes it moving
+ * straight away, and it becomes stationary once no motion was seen for the stationary period. Also keeps how long
+ * was spent in each state, so the time the GPS and connection were paused can be reported.
+ * Motion comes from {@link #onAcceleration} while moving and from the significant motion sensor, when the device
+ * has one, while stationary. Call {@link #check} every so often to notice the device settling down.
+ */
+public class StationaryDetector {
+
+	public interface Listener {
+		/**
+		 * Called when no motion was seen for the stationary period.
+		 */
+		void onStationary();
+
+		/**
+		 * Called when motion is seen while stationary.
+		 */
+		void onMoving();
+	}
+
+	//Standard gravity in m/s^2, what the accelerometer reads at rest.
+	public static final double GRAVITY = 9.80665;
+
+	private final Listener listener;
+	//How far the acceleration may be off gravity before it counts as motion, in m/s^2.
+	private final double threshold;
+	private long stationaryAfter;
+
+	private boolean stationary = false;
+	private long lastMotion;
+	private long stateSince;
+	private long movingMillis = 0;
+	private long stationaryMillis = 0;
+
+	/**
+	 * @param stationaryAfter How long without motion before the device counts as stationary, in milliseconds.
+	 * @param threshold How far the acceleration may be off gravity before it counts as motion, in m/s^2.
+	 */
+	public StationaryDetector(Listener listener, long stationaryAfter, double threshold, long now) {
+		this.listener = listener;
+		this.stationaryAfter = stationaryAfter;
+		this.threshold = threshold;
+		this.lastMotion = now;
+		this.stateSince = now;
+	}
+
+	public synchronized void setStationaryAfter(long stationaryAfter) {
+		this.stationaryAfter = stationaryAfter;
+	}
+
+	public synchronized boolean isStationary() {
+		return this.stationary;
+	}
+
+	/**
+	 * Takes an accelerometer reading in m/s^2. Only the size is looked at, so it works whichever way the device lies.
+	 */
+	public void onAcceleration(float x, float y, float z, long now) {
+		double magnitude = Math.sqrt(x * x + y * y + z * z);
+		if(Math.abs(magnitude - GRAVITY) > this.threshold) {
+			this.onMotion(now);
+		}
+	}
+
+	/**
+	 * Records motion, such as the significant motion sensor triggering.
+	 */
+	public void onMotion(long now) {
+		synchronized(this) {
+			this.lastMotion = now;
+			if(!this.stationary) {
+				return;
+			}
+			this.setStationary(false, now);
+		}
+		this.listener.onMoving();
+	}
+
+	/**
+	 * Becomes stationary if there was no motion for the stationary period.
+	 * @return True if the device just became stationary.
+	 */
+	public boolean check(long now) {
+		synchronized(this) {
+			if(this.stationary || now - this.lastMotion < this.stationaryAfter) {
+				return false;
+			}
+			this.setStationary(true, now);
+		}
+		this.listener.onStationary();
+		return true;
+	}
+
+	/**
+	 * Returns the total time spent moving so far, including the current stretch.
+	 */
+	public synchronized long getMovingMillis(long now) {
+		return this.movingMillis + (this.stationary ? 0 : now - this.stateSince);
+	}
+
+	/**
+	 * Returns the total time spent stationary so far, including the current stretch.
+	 */
+	public synchronized long getStationaryMillis(long now) {
+		return this.stationaryMillis + (this.stationary ? now - this.stateSince : 0);
+	}
+
+	private void setStationary(boolean stationary, long now) {
+		if(this.stationary) {
+			this.stationaryMillis += now - this.stateSince;
+		} else {
+			this.movingMillis += now - this.stateSince;
+		}
+		this.stationary = stationary;
+		this.stateSince = now;
+	}
+}
@@ -0,0 +1,136 @@
+package com.tim.gotthere_app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Wraps connected sockets in TLS. Sessions are cached per endpoint and session tickets are turned on where the
+ * platform supports them, so a reconnect to the same server resumes the session instead of doing a full handshake.
+ */
+public class TlsConnector {
+
+	//How long a cached session may be resumed for, in seconds.
+	private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+	private final SSLContext context;
+	private final HostnameVerifier hostnameVerifier;
+	private final int handshakeTimeout;
+
+	private long handshakes = 0;
+	private long resumedHandshakes = 0;
+	private long lastHandshakeMillis = -1;
+
+	/**
+	 * @param hostnameVerifier Checks the server's certificate against the endpoint's host, or null to only check the chain.
+	 * @param handshakeTimeout How long the handshake may take, in milliseconds.
+	 */
+	public TlsConnector(SSLContext context, HostnameVerifier hostnameVerifier, int handshakeTimeout) {
+		this.context = context;
+		this.hostnameVerifier = hostnameVerifier;
+		this.handshakeTimeout = handshakeTimeout;
+
+		SSLSessionContext sessions = context.getClientSessionContext();
+		sessions.setSessionTimeout(SESSION_TIMEOUT);
+	}
+
+	/**
+	 * Creates a TLS context that only trusts the given certificate, for servers with a self-signed certificate.
+	 * @param certificate An X.509 certificate, PEM or DER encoded.
+	 */
+	public static SSLContext trusting(InputStream certificate) throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+		keyStore.load(null, null);
+		keyStore.setCertificateEntry("server", CertificateFactory.getInstance("X.509").generateCertificate(certificate));
+
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trustManagers.getTrustManagers(), null);
+		return context;
+	}
+
+	/**
+	 * Does the TLS handshake over a connected socket.
+	 * @return The TLS socket, which closes the plain socket along with it.
+	 * @throws IOException If the handshake failed or the server could not be verified. The plain socket is closed.
+	 */
+	public SSLSocket wrap(Socket socket, Endpoint endpoint) throws IOException {
+		//Passing the endpoint's host and port is what lets the session cache find the session to resume.
+		SSLSocket sslSocket = (SSLSocket) this.context.getSocketFactory().createSocket(socket, endpoint.getHost(), endpoint.getPort(), true);
+		try {
+			enableSessionTickets(sslSocket);
+			int timeout = sslSocket.getSoTimeout();
+			sslSocket.setSoTimeout(this.handshakeTimeout);
+
+			long startMillis = System.currentTimeMillis();
+			long start = System.nanoTime();
+			sslSocket.startHandshake();
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			sslSocket.setSoTimeout(timeout);
+
+			SSLSession session = sslSocket.getSession();
+			if(this.hostnameVerifier != null && !this.hostnameVerifier.verify(endpoint.getHost(), session)) {
+				throw new SSLPeerUnverifiedException("Certificate does not match " + endpoint.getHost());
+			}
+
+			//A resumed session was created by an earlier handshake.
+			this.recordHandshake(elapsed, session.getCreationTime() < startMillis);
+			return sslSocket;
+		} catch(IOException | RuntimeException e) {
+			sslSocket.close();
+			throw e;
+		}
+	}
+
+	public synchronized long getHandshakes() {
+		return this.handshakes;
+	}
+
+	public synchronized long getResumedHandshakes() {
+		return this.resumedHandshakes;
+	}
+
+	/**
+	 * Returns how long the last handshake took in milliseconds, or -1 if there has not been one.
+	 */
+	public synchronized long getLastHandshakeMillis() {
+		return this.lastHandshakeMillis;
+	}
+
+	private synchronized void recordHandshake(long millis, boolean resumed) {
+		this.handshakes++;
+		if(resumed) {
+			this.resumedHandshakes++;
+		}
+		this.lastHandshakeMillis = millis;
+	}
+
+	/**
+	 * Turns on session tickets for the platform's TLS provider. Android's provider has them off by default and only
+	 * exposes the switch on its socket class, other providers either have them on already or do not support them.
+	 */
+	private static void enableSessionTickets(SSLSocket socket) {
+		try {
+			Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+			method.invoke(socket, true);
+		} catch(NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			//Not supported by this provider.
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.tim.gotthere_app;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long each stage of the service takes, as spans in a fixed size ring buffer that keeps the latest events.
+ * The buffer is allocated up front and recording a span only stores primitives and references, so tracing does not
+ * allocate. While disabled, {@link #begin()} is a single volatile read.
+ * The trace can be written out in the Chrome trace event format, which Perfetto and chrome://tracing open.
+ * <pre>
+ * long begin = tracer.begin();
+ * ...
+ * tracer.end("encode", begin);
+ * </pre>
+ */
+public class Tracer {
+
+	//Returned by begin() while disabled, so end() knows to skip the span.
+	public static final long DISABLED = Long.MIN_VALUE;
+
+	private final int mask;
+	private final String[] names;
+	private final Thread[] threads;
+	private final long[] starts;
+	private final long[] durations;
+	private final long[] args;
+	private final AtomicLong next = new AtomicLong();
+
+	private volatile boolean enabled = false;
+
+	/**
+	 * @param capacity How many of the latest spans to keep, rounded up to a power of two.
+	 */
+	public Tracer(int capacity) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity * 2 - 1);
+		this.mask = size - 1;
+		this.names = new String[size];
+		this.threads = new Thread[size];
+		this.starts = new long[size];
+		this.durations = new long[size];
+		this.args = new long[size];
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Starts a span.
+	 * @return The start time to pass to end(), or {@link #DISABLED}.
+	 */
+	public long begin() {
+		return this.enabled ? System.nanoTime() : DISABLED;
+	}
+
+	/**
+	 * Ends a span started with {@link #begin()}.
+	 * @param name The stage, which should be a constant so recording doesn't allocate.
+	 */
+	public void end(String name, long begin) {
+		this.end(name, begin, -1);
+	}
+
+	/**
+	 * Ends a span started with {@link #begin()}, along with a count such as the number of fixes or bytes handled.
+	 */
+	public void end(String name, long begin, long arg) {
+		if(begin == DISABLED) {
+			return;
+		}
+		long end = System.nanoTime();
+		int slot = (int) (this.next.getAndIncrement() & this.mask);
+		this.threads[slot] = Thread.currentThread();
+		this.starts[slot] = begin;
+		this.durations[slot] = end - begin;
+		this.args[slot] = arg;
+		this.names[slot] = name;
+	}
+
+	/**
+	 * Returns how many spans are kept, at most the capacity.
+	 */
+	public int size() {
+		return (int) Math.min(this.next.get(), this.names.length);
+	}
+
+	/**
+	 * Forgets every recorded span.
+	 */
+	public void clear() {
+		for(int i = 0; i < this.names.length; i++) {
+			this.names[i] = null;
+			this.threads[i] = null;
+		}
+		this.next.set(0);
+	}
+
+	/**
+	 * Writes the kept spans, oldest first, as a Chrome trace event JSON object.
+	 * Spans recorded while writing may be left out or show up half written, so it is best to disable tracing first.
+	 */
+	public void writeJson(Writer out) throws IOException {
+		long end = this.next.get();
+		long first = Math.max(0, end - this.names.length);
+		long origin = Long.MAX_VALUE;
+		for(long i = first; i < end; i++) {
+			int slot = (int) (i & this.mask);
+			if(this.names[slot] != null) {
+				origin = Math.min(origin, this.starts[slot]);
+			}
+		}
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+		boolean separate = false;
+		for(long i = first; i < end; i++) {
+			int slot = (int) (i & this.mask);
+			String name = this.names[slot];
+			Thread thread = this.threads[slot];
+			if(name == null || thread == null) {
+				continue;
+			}
+			if(separate) {
+				json.append(',');
+			}
+			separate = true;
+			json.append("\n{\"name\":\"");
+			appendEscaped(json, name);
+			json.append("\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(thread.getId()).append(",\"ts\":");
+			appendMicros(json, this.starts[slot] - origin);
+			json.append(",\"dur\":");
+			appendMicros(json, this.durations[slot]);
+			if(this.args[slot] >= 0) {
+				json.append(",\"args\":{\"count\":").append(this.args[slot]).append('}');
+			}
+			json.append('}');
+			out.append(json);
+			json.setLength(0);
+		}
+
+		//Name the threads, each one once.
+		Set<Thread> named = new HashSet<>();
+		for(long i = first; i < end; i++) {
+			Thread thread = this.threads[(int) (i & this.mask)];
+			if(thread != null && named.add(thread)) {
+				if(separate) {
+					json.append(',');
+				}
+				separate = true;
+				json.append("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":").append(thread.getId())
+						.append(",\"args\":{\"name\":\"");
+				appendEscaped(json, thread.getName());
+				json.append("\"}}");
+			}
+		}
+		json.append("\n]}\n");
+		out.append(json);
+		out.flush();
+	}
+
+	/**
+	 * Trace event times are in microseconds, kept to the nanosecond.
+	 */
+	private static void appendMicros(StringBuilder json, long nanos) {
+		json.append(nanos / 1000).append('.');
+		long fraction = nanos % 1000;
+		if(fraction < 100) {
+			json.append('0');
+		}
+		if(fraction < 10) {
+			json.append('0');
+		}
+		json.append(fraction);
+	}
+
+	private static void appendEscaped(StringBuilder json, String value) {
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+	}
+}
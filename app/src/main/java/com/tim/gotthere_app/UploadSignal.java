@@ -0,0 +1,36 @@
+package com.tim.gotthere_app;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * What the sender thread waits on. It is signalled whenever something the sender waits for may have changed: a new
+ * fix, the upload mode, who is watching or the settings. Waiting on it rather than on the queue alone lets the sender
+ * notice that it should stop streaming even when no fix is coming to wake it, such as once the device is stationary.
+ * Code that checks and waits under its lock never misses a signal.
+ */
+public class UploadSignal {
+
+	public interface Condition {
+		boolean holds();
+	}
+
+	public synchronized void signal() {
+		this.notifyAll();
+	}
+
+	/**
+	 * Takes the next element from the queue, waiting for one for as long as the condition holds.
+	 * Whoever adds to the queue or changes the condition must signal afterwards.
+	 * @return The element, or null once the condition stopped holding with nothing in the queue.
+	 */
+	public synchronized <E> E poll(BlockingQueue<E> queue, Condition waiting) throws InterruptedException {
+		E element;
+		while((element = queue.poll()) == null) {
+			if(!waiting.holds()) {
+				return null;
+			}
+			this.wait();
+		}
+		return element;
+	}
+}
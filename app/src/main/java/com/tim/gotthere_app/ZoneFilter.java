@@ -0,0 +1,43 @@
+package com.tim.gotthere_app;
+
+/**
+ * Holds back fixes that carry no news while the device sits inside a zone. The fix that enters a zone, leaves it or
+ * moves to another zone always goes through, and inside a zone one fix per heartbeat still does so the server knows
+ * the device is alive. Zones are told apart by id, so the same zone in a newly received index counts as the same.
+ * Not thread safe, only the location callback uses it.
+ */
+public class ZoneFilter {
+
+	private Geofence currentZone;
+	private long lastSent = 0;
+
+	/**
+	 * Looks up the fix's zone and decides whether to hold it back. Fixes that go through are remembered as sent.
+	 * @param time The fix's time in milliseconds.
+	 * @param heartbeat How often a fix goes through while staying in the same zone, in milliseconds.
+	 * @return True if the fix should not be sent.
+	 */
+	public boolean suppress(GeofenceIndex zones, double latitude, double longitude, long time, long heartbeat) {
+		Geofence zone = zones.find(latitude, longitude);
+		if(zone != null && isSameZone(zone, this.currentZone) && time - this.lastSent < heartbeat) {
+			return true;
+		}
+		this.currentZone = zone;
+		this.lastSent = time;
+		return false;
+	}
+
+	/**
+	 * Returns the zone of the last fix that went through, or null if it was outside every zone.
+	 */
+	public Geofence getCurrentZone() {
+		return this.currentZone;
+	}
+
+	/**
+	 * Returns true if both are the same zone, or both are outside every zone.
+	 */
+	public static boolean isSameZone(Geofence a, Geofence b) {
+		return a == null ? b == null : b != null && a.getId() == b.getId();
+	}
+}
@@ -0,0 +1,115 @@
+package com.tim.gotthere_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends live datagrams and the TCP stream to the stand-in server.
+ */
+public class DatagramSenderTest {
+
+	private StandInServer server;
+	private InetSocketAddress address;
+
+	@Before
+	public void setUp() throws IOException {
+		this.server = new StandInServer();
+		Endpoint endpoint = this.server.getEndpoint();
+		this.address = new InetSocketAddress(endpoint.getHost(), endpoint.getPort());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.server.close();
+	}
+
+	@Test
+	public void header_roundTrips() {
+		byte[] buffer = new byte[LocationDatagram.MAX_SIZE];
+		LocationDatagram.writeHeader(buffer, 0x0102030405060708L, -5, 2);
+
+		assertTrue(LocationDatagram.isValid(buffer, 0, LocationDatagram.HEADER_SIZE + 2 * LocationDatagram.FIX_SIZE));
+		assertFalse(LocationDatagram.isValid(buffer, 0, LocationDatagram.HEADER_SIZE + LocationDatagram.FIX_SIZE));
+		assertEquals(0x0102030405060708L, LocationDatagram.getSession(buffer, 0));
+		assertEquals(-5, LocationDatagram.getSequence(buffer, 0));
+		assertEquals(2, LocationDatagram.getCount(buffer, 0));
+	}
+
+	@Test
+	public void isNewer_handlesWrapAround() {
+		assertTrue(LocationDatagram.isNewer(2, 1));
+		assertFalse(LocationDatagram.isNewer(1, 1));
+		assertFalse(LocationDatagram.isNewer(0, 1));
+		assertTrue(LocationDatagram.isNewer(Integer.MIN_VALUE, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void send_deliversBatchWithSequenceNumbers() throws Exception {
+		DatagramSender sender = new DatagramSender(42);
+		try {
+			byte[] buffer = sender.getBuffer();
+			buffer[LocationDatagram.HEADER_SIZE] = 1;
+			buffer[LocationDatagram.HEADER_SIZE + LocationDatagram.FIX_SIZE] = 2;
+			sender.send(this.address, 2);
+			sender.send(this.address, 1);
+
+			assertTrue(this.server.awaitFixes(3, 5000));
+			List<StandInServer.Received> fixes = this.server.getFixes();
+			assertEquals(0, fixes.get(0).sequence);
+			assertEquals(1, fixes.get(0).fix[0]);
+			assertEquals(1, fixes.get(1).sequence);
+			assertEquals(2, fixes.get(1).fix[0]);
+			assertEquals(2, fixes.get(2).sequence);
+			assertTrue(fixes.get(2).datagram);
+		} finally {
+			sender.close();
+		}
+	}
+
+	@Test
+	public void server_discardsStaleFixes() throws Exception {
+		byte[] buffer = new byte[LocationDatagram.HEADER_SIZE + LocationDatagram.FIX_SIZE];
+		try(DatagramSocket socket = new DatagramSocket()) {
+			//Sequence 5 arrives first, so 3 was overtaken and must be dropped.
+			LocationDatagram.writeHeader(buffer, 7, 5, 1);
+			socket.send(new DatagramPacket(buffer, buffer.length, this.address));
+			LocationDatagram.writeHeader(buffer, 7, 3, 1);
+			socket.send(new DatagramPacket(buffer, buffer.length, this.address));
+			LocationDatagram.writeHeader(buffer, 7, 6, 1);
+			socket.send(new DatagramPacket(buffer, buffer.length, this.address));
+		}
+
+		assertTrue(this.server.awaitFixes(2, 5000));
+		List<StandInServer.Received> fixes = this.server.getFixes();
+		assertEquals(5, fixes.get(0).sequence);
+		assertEquals(6, fixes.get(1).sequence);
+		assertEquals(1, this.server.getStaleDatagramFixes());
+	}
+
+	@Test
+	public void lostDatagrams_doNotHoldUpTcp() throws Exception {
+		this.server.setDatagramLoss(1);
+		DatagramSender sender = new DatagramSender(42);
+		try(Socket socket = new Socket(this.address.getAddress(), this.address.getPort())) {
+			sender.send(this.address, 1);
+			OutputStream out = socket.getOutputStream();
+			out.write(new byte[LocationDatagram.FIX_SIZE]);
+
+			assertTrue(this.server.awaitFixes(1, 5000));
+			assertFalse(this.server.getFixes().get(0).datagram);
+		} finally {
+			sender.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.tim.gotthere_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the endpoint selector against stand-in servers listening on localhost.
+ */
+public class EndpointSelectorTest {
+
+	private static final long STAGGER = 250;
+
+	private final List<ServerSocket> servers = new ArrayList<>();
+
+	@Before
+	public void setUp() throws IOException {
+		for(int i = 0; i < 2; i++) {
+			this.servers.add(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for(ServerSocket server : this.servers) {
+			server.close();
+		}
+	}
+
+	@Test
+	public void parseList_keepsOrder() {
+		List<Endpoint> endpoints = Endpoint.parseList("10.0.0.224:2810, example.com:443,");
+		assertEquals(2, endpoints.size());
+		assertEquals("10.0.0.224", endpoints.get(0).getHost());
+		assertEquals(2810, endpoints.get(0).getPort());
+		assertEquals("example.com:443", endpoints.get(1).toString());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parse_rejectsMissingPort() {
+		Endpoint.parse("10.0.0.224");
+	}
+
+	@Test
+	public void connect_failsOverFromDeadEndpoint() throws IOException {
+		Endpoint dead = this.deadEndpoint();
+		Endpoint live = this.endpointOf(this.servers.get(0));
+		EndpointSelector selector = new EndpointSelector(Arrays.asList(dead, live), 1000, 250);
+
+		try(Socket socket = selector.connect()) {
+			assertTrue(socket.isConnected());
+			assertSame(live, selector.getCurrent());
+			assertFalse(dead.isHealthy(System.currentTimeMillis()));
+			assertTrue(live.getRtt() >= 0);
+		} finally {
+			selector.shutdown();
+		}
+	}
+
+	/**
+	 * The preferred endpoint accepts nothing and its connect hangs instead of failing, so the next endpoint has to be
+	 * raced against it after the stagger delay. The hanging attempt connects once the server catches up, and has to
+	 * be closed since it lost.
+	 */
+	@Test
+	public void connect_racesHangingEndpoint() throws IOException {
+		List<Socket> fillers = new ArrayList<>();
+		ServerSocket hanging = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Endpoint slow = this.endpointOf(hanging);
+		Endpoint live = this.endpointOf(this.servers.get(0));
+		EndpointSelector selector = new EndpointSelector(Arrays.asList(slow, live), 10000, STAGGER);
+
+		try {
+			this.fillBacklog(hanging, fillers);
+
+			long start = System.currentTimeMillis();
+			Socket socket = selector.connect();
+			long elapsed = System.currentTimeMillis() - start;
+			socket.close();
+			assertSame(live, selector.getCurrent());
+			assertTrue("Took " + elapsed + " ms", elapsed >= STAGGER && elapsed < 3 * STAGGER);
+
+			//Let the hanging attempt through: its connect completes when the retried SYN finds room.
+			for(Socket filler : fillers) {
+				filler.close();
+			}
+			hanging.setSoTimeout(10000);
+			for(int i = 0; i < fillers.size(); i++) {
+				hanging.accept().close();
+			}
+			try(Socket loser = hanging.accept()) {
+				loser.setSoTimeout(5000);
+				assertEquals("The losing socket was left open", -1, loser.getInputStream().read());
+			}
+		} finally {
+			selector.shutdown();
+			for(Socket filler : fillers) {
+				filler.close();
+			}
+			hanging.close();
+		}
+	}
+
+	@Test
+	public void rank_prefersHealthyLowestRtt() {
+		Endpoint slow = new Endpoint("slow", 1);
+		Endpoint fast = new Endpoint("fast", 1);
+		Endpoint unknown = new Endpoint("unknown", 1);
+		Endpoint down = new Endpoint("down", 1);
+		slow.recordSuccess(200);
+		fast.recordSuccess(20);
+		long now = System.currentTimeMillis();
+		down.recordFailure(now);
+
+		EndpointSelector selector = new EndpointSelector(Arrays.asList(down, unknown, slow, fast), 1000, 250);
+		assertEquals(Arrays.asList(fast, slow, unknown, down), selector.rank(now));
+		selector.shutdown();
+	}
+
+	@Test
+	public void reportFailure_movesToNextEndpoint() throws IOException {
+		Endpoint first = this.endpointOf(this.servers.get(0));
+		Endpoint second = this.endpointOf(this.servers.get(1));
+		EndpointSelector selector = new EndpointSelector(Arrays.asList(first, second), 1000, 250);
+
+		try {
+			selector.connect().close();
+			Endpoint lost = selector.getCurrent();
+			selector.reportFailure();
+
+			selector.connect().close();
+			assertNotSame(lost, selector.getCurrent());
+		} finally {
+			selector.shutdown();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void connect_throwsWhenEverythingIsDown() throws IOException {
+		EndpointSelector selector = new EndpointSelector(Arrays.asList(this.deadEndpoint(), this.deadEndpoint()), 1000, 250);
+		try {
+			selector.connect();
+		} finally {
+			selector.shutdown();
+		}
+	}
+
+	/**
+	 * Connects to a server that never accepts until its backlog is full, after which connects to it hang.
+	 */
+	private void fillBacklog(ServerSocket server, List<Socket> fillers) throws IOException {
+		while(fillers.size() < 16) {
+			Socket filler = new Socket();
+			try {
+				filler.connect(server.getLocalSocketAddress(), 200);
+			} catch(SocketTimeoutException e) {
+				filler.close();
+				return;
+			}
+			fillers.add(filler);
+		}
+		fail("Connects kept completing, the backlog never filled up");
+	}
+
+	private Endpoint endpointOf(ServerSocket server) {
+		return new Endpoint(server.getInetAddress().getHostAddress(), server.getLocalPort());
+	}
+
+	/**
+	 * Returns a localhost endpoint with nothing listening on it.
+	 */
+	private Endpoint deadEndpoint() throws IOException {
+		try(ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			return this.endpointOf(server);
+		}
+	}
+}
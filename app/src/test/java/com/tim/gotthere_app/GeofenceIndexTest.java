@@ -0,0 +1,132 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks zone lookups and reading zones from the downlink.
+ */
+public class GeofenceIndexTest {
+
+	private static final Geofence DEPOT = Geofence.circle(1, 40.0, -75.0, 200);
+	//A square around a customer site, a few cells east of the depot.
+	private static final Geofence SITE = Geofence.polygon(2,
+			new double[] {40.000, 40.000, 40.010, 40.010},
+			new double[] {-74.950, -74.940, -74.940, -74.950});
+
+	@Test
+	public void find_circle() {
+		GeofenceIndex index = new GeofenceIndex(Arrays.asList(DEPOT, SITE), 0.01);
+
+		assertSame(DEPOT, index.find(40.0, -75.0));
+		//About 150 m north, inside the radius.
+		assertSame(DEPOT, index.find(40.00135, -75.0));
+		//About 300 m north, outside it.
+		assertNull(index.find(40.0027, -75.0));
+	}
+
+	@Test
+	public void find_polygon() {
+		GeofenceIndex index = new GeofenceIndex(Arrays.asList(DEPOT, SITE), 0.01);
+
+		assertSame(SITE, index.find(40.005, -74.945));
+		assertNull(index.find(40.005, -74.935));
+		assertNull(index.find(39.995, -74.945));
+	}
+
+	@Test
+	public void find_acrossCellBoundaries() {
+		//The depot's circle straddles the cell boundaries at 40.0 and -75.0.
+		GeofenceIndex index = new GeofenceIndex(Collections.singletonList(DEPOT), 0.01);
+
+		assertSame(DEPOT, index.find(39.9995, -75.0005));
+		assertSame(DEPOT, index.find(40.0005, -74.9995));
+	}
+
+	@Test
+	public void find_oversizedZone() {
+		Geofence county = Geofence.circle(3, 41.0, -76.0, 50000);
+		GeofenceIndex index = new GeofenceIndex(Arrays.asList(DEPOT, county), 0.001);
+
+		assertSame(county, index.find(41.2, -76.1));
+		assertSame(DEPOT, index.find(40.0, -75.0));
+	}
+
+	@Test
+	public void find_manyZones() {
+		List<Geofence> zones = new ArrayList<>();
+		for(int i = 0; i < 1000; i++) {
+			zones.add(Geofence.circle(i, 30 + i * 0.05, -100 + i * 0.05, 100));
+		}
+		GeofenceIndex index = new GeofenceIndex(zones, 0.01);
+
+		assertEquals(1000, index.size());
+		for(Geofence zone : zones) {
+			int i = zone.getId();
+			assertSame(zone, index.find(30 + i * 0.05, -100 + i * 0.05));
+		}
+		assertNull(index.find(30.025, -99.975));
+	}
+
+	@Test
+	public void empty_findsNothing() {
+		assertNull(GeofenceIndex.EMPTY.find(40.0, -75.0));
+	}
+
+	@Test
+	public void downlink_readsZones() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(Downlink.GEOFENCES);
+		out.writeShort(2);
+		out.writeByte(Downlink.CIRCLE);
+		out.writeInt(1);
+		out.writeDouble(40.0);
+		out.writeDouble(-75.0);
+		out.writeFloat(200);
+		out.writeByte(Downlink.POLYGON);
+		out.writeInt(2);
+		out.writeShort(3);
+		out.writeDouble(40.0);
+		out.writeDouble(-74.95);
+		out.writeDouble(40.0);
+		out.writeDouble(-74.94);
+		out.writeDouble(40.01);
+		out.writeDouble(-74.94);
+		out.writeByte(Downlink.WATCH_START);
+
+		final List<Geofence> received = new ArrayList<>();
+		final boolean[] watching = new boolean[1];
+		new Downlink(new ByteArrayInputStream(bytes.toByteArray()), new Downlink.Listener() {
+			@Override
+			public void onWatching(boolean value) {
+				watching[0] = value;
+			}
+
+			@Override
+			public void onGeofences(List<Geofence> geofences) {
+				received.addAll(geofences);
+			}
+
+			@Override
+			public void onPeerActivity() {
+			}
+		}).run();
+
+		assertEquals(2, received.size());
+		assertTrue(received.get(0).contains(40.0, -75.0));
+		assertEquals(2, received.get(1).getId());
+		assertTrue(received.get(1).contains(40.001, -74.941));
+		assertTrue(watching[0]);
+	}
+}
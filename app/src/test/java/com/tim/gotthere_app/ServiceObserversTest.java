@@ -0,0 +1,112 @@
+package com.tim.gotthere_app;
+
+import android.location.Location;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that observers get conflated updates on their own executor.
+ */
+public class ServiceObserversTest {
+
+	/**
+	 * An executor that only runs tasks when told to, like a busy UI thread.
+	 */
+	private static class ManualExecutor implements Executor {
+		private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+		@Override
+		public void execute(Runnable command) {
+			this.tasks.add(command);
+		}
+
+		int runAll() {
+			int ran = 0;
+			Runnable task;
+			while((task = this.tasks.poll()) != null) {
+				task.run();
+				ran++;
+			}
+			return ran;
+		}
+	}
+
+	private static class RecordingObserver implements ServiceObservers.Observer {
+		private final List<ConnectionState> states = new ArrayList<>();
+		private final List<ServiceMetrics> metrics = new ArrayList<>();
+
+		@Override
+		public void onLocation(Location location) {
+		}
+
+		@Override
+		public void onConnectionState(ConnectionState state) {
+			this.states.add(state);
+		}
+
+		@Override
+		public void onMetrics(ServiceMetrics metrics) {
+			this.metrics.add(metrics);
+		}
+	}
+
+	@Test
+	public void slowObserver_onlySeesLatest() {
+		ServiceObservers observers = new ServiceObservers();
+		ManualExecutor executor = new ManualExecutor();
+		RecordingObserver observer = new RecordingObserver();
+		observers.register(observer, executor);
+		executor.runAll();
+
+		observers.publishConnectionState(ConnectionState.CONNECTING);
+		observers.publishConnectionState(ConnectionState.CONNECTED);
+		for(int i = 1; i <= 100; i++) {
+			observers.publishMetrics(new ServiceMetrics.Builder().setSentLocations(i).build());
+		}
+
+		assertEquals(1, executor.runAll());
+		assertEquals(1, observer.states.size());
+		assertEquals(ConnectionState.CONNECTED, observer.states.get(0));
+		assertEquals(1, observer.metrics.size());
+		assertEquals(100, observer.metrics.get(0).sentLocations);
+	}
+
+	@Test
+	public void register_deliversLatestValues() {
+		ServiceObservers observers = new ServiceObservers();
+		observers.publishConnectionState(ConnectionState.IDLE);
+
+		ManualExecutor executor = new ManualExecutor();
+		RecordingObserver observer = new RecordingObserver();
+		observers.register(observer, executor);
+		executor.runAll();
+
+		assertEquals(1, observer.states.size());
+		assertEquals(ConnectionState.IDLE, observer.states.get(0));
+		assertTrue(observer.metrics.isEmpty());
+	}
+
+	@Test
+	public void unregister_dropsPendingDelivery() {
+		ServiceObservers observers = new ServiceObservers();
+		ManualExecutor executor = new ManualExecutor();
+		RecordingObserver observer = new RecordingObserver();
+		observers.register(observer, executor);
+		executor.runAll();
+
+		observers.publishConnectionState(ConnectionState.LOST);
+		observers.unregister(observer);
+		executor.runAll();
+
+		assertTrue(observer.states.isEmpty());
+		assertFalse(observers.hasObservers());
+	}
+}
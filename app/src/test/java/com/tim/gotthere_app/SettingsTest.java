@@ -0,0 +1,89 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks reading settings from preference values, as the preference screen stores them.
+ */
+public class SettingsTest {
+
+	@Test
+	public void from_missingValuesUseDefaults() {
+		Settings settings = Settings.DEFAULTS;
+
+		assertEquals(Arrays.asList(new Endpoint("10.0.0.224", 2810)), settings.endpoints);
+		assertFalse(settings.useTls);
+		assertEquals(3000, settings.connectTimeout);
+		assertEquals(30000, settings.locationInterval);
+		assertEquals(15000, settings.fastestLocationInterval);
+		assertFalse(settings.burstMode);
+		assertEquals(5 * 60 * 1000, settings.burstInterval);
+		assertEquals(512, settings.queueCapacity);
+	}
+
+	@Test
+	public void from_parsesPreferenceStrings() {
+		Map<String, Object> values = new HashMap<>();
+		values.put(Settings.KEY_SERVER_ENDPOINTS, "a.example:1, b.example:2");
+		values.put(Settings.KEY_USE_TLS, true);
+		values.put(Settings.KEY_CONNECT_TIMEOUT, "5");
+		values.put(Settings.KEY_BURST_INTERVAL, " 2 ");
+		values.put(Settings.KEY_QUEUE_CAPACITY, "100");
+		values.put(Util.KEY_REQUESTING_LOCATION_UPDATES, true);
+		Settings settings = Settings.from(values);
+
+		assertEquals(Arrays.asList(new Endpoint("a.example", 1), new Endpoint("b.example", 2)), settings.endpoints);
+		assertTrue(settings.useTls);
+		assertEquals(5000, settings.connectTimeout);
+		assertEquals(2 * 60 * 1000, settings.burstInterval);
+		assertEquals(100, settings.queueCapacity);
+		assertTrue(settings.requestingLocationUpdates);
+	}
+
+	@Test
+	public void from_invalidValuesFallBack() {
+		Map<String, Object> values = new HashMap<>();
+		values.put(Settings.KEY_SERVER_ENDPOINTS, "no port here");
+		values.put(Settings.KEY_CONNECT_TIMEOUT, "soon");
+		values.put(Settings.KEY_BURST_MODE, "yes");
+		Settings settings = Settings.from(values);
+
+		assertEquals(Settings.DEFAULTS.endpoints, settings.endpoints);
+		assertEquals(3000, settings.connectTimeout);
+		assertFalse(settings.burstMode);
+	}
+
+	@Test
+	public void from_tlsTurnsDatagramsOff() {
+		Map<String, Object> values = new HashMap<>();
+		values.put(Settings.KEY_USE_DATAGRAM_TRANSPORT, true);
+		assertTrue(Settings.from(values).useDatagramTransport);
+
+		//Live fixes would otherwise go out in plaintext next to the encrypted connection.
+		values.put(Settings.KEY_USE_TLS, true);
+		Settings settings = Settings.from(values);
+		assertTrue(settings.useTls);
+		assertFalse(settings.useDatagramTransport);
+	}
+
+	@Test
+	public void from_clampsToRange() {
+		Map<String, Object> values = new HashMap<>();
+		values.put(Settings.KEY_QUEUE_CAPACITY, "1000000");
+		values.put(Settings.KEY_BURST_THRESHOLD, "0");
+		values.put(Settings.KEY_LOCATION_INTERVAL, "10");
+		values.put(Settings.KEY_FASTEST_LOCATION_INTERVAL, "60");
+		Settings settings = Settings.from(values);
+
+		assertEquals(Settings.MAX_QUEUE_CAPACITY, settings.queueCapacity);
+		assertEquals(1, settings.burstThreshold);
+		//The fastest interval can't be slower than the interval itself.
+		assertEquals(10000, settings.fastestLocationInterval);
+	}
+}
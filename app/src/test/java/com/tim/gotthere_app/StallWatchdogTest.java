@@ -0,0 +1,236 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the watchdog notices a stalled sender and that tearing down the connection lets the sender recover,
+ * against a stand-in server that goes dead.
+ */
+public class StallWatchdogTest {
+
+	private static final long WRITE_PERIOD = 50;
+	private static final long PING_PERIOD = 100;
+	private static final long PEER_TIMEOUT = 500;
+	private static final int FIXES_AFTER_RECONNECT = 20;
+
+	/**
+	 * Records stalls and reports a fixed oldest pending fix.
+	 */
+	private static class RecordingListener implements StallWatchdog.Listener {
+		volatile long oldestPending = -1;
+		final List<String> stalls = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public long getOldestPending() {
+			return this.oldestPending;
+		}
+
+		@Override
+		public void onStall(String reason) {
+			this.stalls.add(reason);
+		}
+	}
+
+	@Test
+	public void check_blockedWrite() {
+		RecordingListener listener = new RecordingListener();
+		StallWatchdog watchdog = new StallWatchdog(listener, 1000, 60000, 60000);
+		long now = System.currentTimeMillis();
+
+		watchdog.onWriteStarted();
+		assertFalse(watchdog.check(now + 500));
+		assertTrue(watchdog.check(now + 1500));
+		assertEquals(1, listener.stalls.size());
+		assertTrue(listener.stalls.get(0).startsWith("Write blocked"));
+
+		//The same blocked write is not reported twice.
+		assertFalse(watchdog.check(now + 2000));
+		assertEquals(1, watchdog.getStalls());
+	}
+
+	@Test
+	public void check_overdueQueue() {
+		RecordingListener listener = new RecordingListener();
+		StallWatchdog watchdog = new StallWatchdog(listener, 1000, 10000, 60000);
+		long now = System.currentTimeMillis();
+
+		//An old fix that arrived just after a write is not a stall yet.
+		listener.oldestPending = now - 60000;
+		watchdog.onWriteFinished(true);
+		assertFalse(watchdog.check(now + 5000));
+
+		//Nothing written for longer than the delay while it waits is.
+		assertTrue(watchdog.check(now + 11000));
+		assertTrue(listener.stalls.get(0).startsWith("Oldest fix waiting"));
+
+		//Nothing overdue, nothing to report however long it has been.
+		listener.oldestPending = -1;
+		assertFalse(watchdog.check(now + 60000));
+	}
+
+	@Test
+	public void check_failedWriteIsNotProgress() {
+		RecordingListener listener = new RecordingListener();
+		StallWatchdog watchdog = new StallWatchdog(listener, 1000, 10000, 60000);
+		long now = System.currentTimeMillis();
+		listener.oldestPending = now;
+
+		watchdog.onWriteStarted();
+		watchdog.onWriteFinished(false);
+		assertTrue(watchdog.check(now + 11000));
+	}
+
+	@Test
+	public void check_silentPeer() {
+		RecordingListener listener = new RecordingListener();
+		StallWatchdog watchdog = new StallWatchdog(listener, 1000, 10000, 5000);
+		long now = System.currentTimeMillis();
+
+		//A server that never pinged is not expected to.
+		watchdog.onConnected();
+		assertFalse(watchdog.check(now + 60000));
+
+		watchdog.onPeerActivity();
+		watchdog.onWriteFinished(true);
+		assertFalse(watchdog.check(now + 4000));
+		assertTrue(watchdog.check(now + 6000));
+		assertTrue(listener.stalls.get(0).startsWith("Nothing heard"));
+
+		//A ping that comes in after the connection closed doesn't count.
+		watchdog.onDisconnected();
+		watchdog.onPeerActivity();
+		assertFalse(watchdog.check(now + 60000));
+	}
+
+	/**
+	 * Writes single fixes the way the service does, to a server that pings and then goes dead without an error.
+	 * The writes keep succeeding into the socket buffers, so only the server's silence shows the link is gone.
+	 */
+	@Test
+	public void deadServer_senderReconnects() throws Exception {
+		final AtomicInteger connections = new AtomicInteger();
+		StandInServer server = new StandInServer() {
+			@Override
+			protected void serve(Socket connection) throws IOException {
+				final OutputStream out = connection.getOutputStream();
+				out.write(Downlink.PING);
+				if(connections.incrementAndGet() == 1) {
+					//The first connection dies: it stays up, but nothing is read or sent any more.
+					try {
+						Thread.sleep(Long.MAX_VALUE);
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+				this.startThread(() -> {
+					try {
+						while(true) {
+							Thread.sleep(PING_PERIOD);
+							out.write(Downlink.PING);
+						}
+					} catch(IOException | InterruptedException e) {
+						//Client went away.
+					}
+				});
+				super.serve(connection);
+			}
+		};
+		EndpointSelector selector = new EndpointSelector(Collections.singletonList(server.getEndpoint()), 1000, 250);
+		final Socket[] current = new Socket[1];
+		final List<String> stalls = Collections.synchronizedList(new ArrayList<String>());
+		final StallWatchdog watchdog = new StallWatchdog(new StallWatchdog.Listener() {
+			@Override
+			public long getOldestPending() {
+				return -1;
+			}
+
+			@Override
+			public void onStall(String reason) {
+				stalls.add(reason);
+				try {
+					synchronized(current) {
+						current[0].close();
+					}
+				} catch(IOException e) {
+					fail(e.toString());
+				}
+			}
+		}, 30000, 60000, PEER_TIMEOUT);
+		watchdog.start(50);
+
+		try {
+			byte[] fix = new byte[LocationDatagram.FIX_SIZE];
+			boolean reconnected = false;
+			int sentAfterReconnect = 0;
+			this.connect(selector, current, watchdog);
+			long deadline = System.currentTimeMillis() + 10000;
+			while(System.currentTimeMillis() < deadline && sentAfterReconnect < FIXES_AFTER_RECONNECT) {
+				try {
+					watchdog.onWriteStarted();
+					current[0].getOutputStream().write(fix);
+					watchdog.onWriteFinished(true);
+					if(reconnected) {
+						sentAfterReconnect++;
+					}
+				} catch(IOException e) {
+					//What the service does when a write fails: close, count it as lost and connect again.
+					watchdog.onWriteFinished(false);
+					watchdog.onDisconnected();
+					selector.reportFailure();
+					assertFalse("Stalled again after reconnecting", reconnected);
+					reconnected = true;
+					//The only endpoint is backing off, the selector still tries it when nothing else is left.
+					this.connect(selector, current, watchdog);
+				}
+				Thread.sleep(WRITE_PERIOD);
+			}
+
+			assertTrue(reconnected);
+			assertEquals(1, watchdog.getStalls());
+			assertTrue(stalls.get(0).startsWith("Nothing heard"));
+			assertTrue(server.awaitFixes(FIXES_AFTER_RECONNECT, 5000));
+			assertEquals(2, connections.get());
+		} finally {
+			watchdog.shutdown();
+			selector.shutdown();
+			server.close();
+		}
+	}
+
+	/**
+	 * Connects and starts reading the downlink, the way the service does.
+	 */
+	private void connect(EndpointSelector selector, Socket[] current, final StallWatchdog watchdog) throws IOException {
+		Socket socket = selector.connect();
+		synchronized(current) {
+			current[0] = socket;
+		}
+		watchdog.onConnected();
+		Thread downlinkThread = new Thread(new Downlink(socket.getInputStream(), new Downlink.Listener() {
+			@Override
+			public void onWatching(boolean watching) {
+			}
+
+			@Override
+			public void onGeofences(List<Geofence> geofences) {
+			}
+
+			@Override
+			public void onPeerActivity() {
+				watchdog.onPeerActivity();
+			}
+		}));
+		downlinkThread.setDaemon(true);
+		downlinkThread.start();
+	}
+}
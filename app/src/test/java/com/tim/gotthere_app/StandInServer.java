@@ -0,0 +1,208 @@
+package com.tim.gotthere_app;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A stand-in for the GotThere server used by the tests. It listens on localhost for the TCP stream and for
+ * live datagrams on the same port number, drops stale datagram fixes the way the real server does and can
+ * simulate datagram loss so the two transports can be compared. The TCP side can be served over TLS instead.
+ */
+public class StandInServer implements Closeable {
+
+	/**
+	 * A fix as it arrived at the server.
+	 */
+	public static class Received {
+		public final byte[] fix;
+		public final boolean datagram;
+		//Only meaningful for datagram fixes.
+		public final int sequence;
+		public final long receivedNanos;
+
+		Received(byte[] fix, boolean datagram, int sequence) {
+			this.fix = fix;
+			this.datagram = datagram;
+			this.sequence = sequence;
+			this.receivedNanos = System.nanoTime();
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final DatagramSocket datagramSocket;
+	private final List<Socket> connections = new ArrayList<>();
+	private final List<Received> fixes = new ArrayList<>();
+	private final Map<Long, Integer> lastSequences = new HashMap<>();
+	private final Random random = new Random(2810);
+
+	private volatile double datagramLoss = 0;
+	private int staleDatagramFixes = 0;
+	private int lostDatagrams = 0;
+
+	public StandInServer() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * @param tls The context to serve TCP connections over TLS with, or null for plain TCP.
+	 */
+	public StandInServer(SSLContext tls) throws IOException {
+		this.serverSocket = tls == null
+				? new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+				: tls.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.datagramSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort()));
+
+		this.startThread(this::acceptConnections);
+		this.startThread(this::receiveDatagrams);
+	}
+
+	public Endpoint getEndpoint() {
+		return new Endpoint(this.serverSocket.getInetAddress().getHostAddress(), this.serverSocket.getLocalPort());
+	}
+
+	/**
+	 * Sets the chance of an incoming datagram being thrown away, between 0 and 1.
+	 */
+	public void setDatagramLoss(double datagramLoss) {
+		this.datagramLoss = datagramLoss;
+	}
+
+	public synchronized List<Received> getFixes() {
+		return new ArrayList<>(this.fixes);
+	}
+
+	public synchronized int getStaleDatagramFixes() {
+		return this.staleDatagramFixes;
+	}
+
+	public synchronized int getLostDatagrams() {
+		return this.lostDatagrams;
+	}
+
+	/**
+	 * Waits until at least the given number of fixes have arrived.
+	 * @return False if the timeout ran out first.
+	 */
+	public synchronized boolean awaitFixes(int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(this.fixes.size() < count) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				return false;
+			}
+			this.wait(remaining);
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.serverSocket.close();
+		this.datagramSocket.close();
+		synchronized(this.connections) {
+			for(Socket connection : this.connections) {
+				connection.close();
+			}
+		}
+	}
+
+	protected void startThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "StandInServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Handles one accepted TCP connection. The default reads 15 byte fixes until the client goes away.
+	 */
+	protected void serve(Socket connection) throws IOException {
+		DataInputStream in = new DataInputStream(connection.getInputStream());
+		while(true) {
+			byte[] fix = new byte[LocationDatagram.FIX_SIZE];
+			in.readFully(fix);
+			this.addFix(new Received(fix, false, -1));
+		}
+	}
+
+	private void acceptConnections() {
+		while(!this.serverSocket.isClosed()) {
+			try {
+				Socket connection = this.serverSocket.accept();
+				synchronized(this.connections) {
+					this.connections.add(connection);
+				}
+				this.startThread(() -> {
+					try {
+						this.serve(connection);
+					} catch(IOException e) {
+						//Client went away.
+					}
+				});
+			} catch(IOException e) {
+				//Server closed.
+			}
+		}
+	}
+
+	private void receiveDatagrams() {
+		byte[] buffer = new byte[LocationDatagram.MAX_SIZE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(!this.datagramSocket.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				this.datagramSocket.receive(packet);
+				this.onDatagram(buffer, packet.getLength());
+			} catch(IOException e) {
+				//Server closed.
+			}
+		}
+	}
+
+	private synchronized void onDatagram(byte[] buffer, int length) {
+		if(!LocationDatagram.isValid(buffer, 0, length)) {
+			return;
+		}
+		if(this.random.nextDouble() < this.datagramLoss) {
+			this.lostDatagrams++;
+			return;
+		}
+
+		long session = LocationDatagram.getSession(buffer, 0);
+		int sequence = LocationDatagram.getSequence(buffer, 0);
+		int count = LocationDatagram.getCount(buffer, 0);
+		Integer last = this.lastSequences.get(session);
+
+		for(int i = 0; i < count; i++) {
+			if(last != null && !LocationDatagram.isNewer(sequence + i, last)) {
+				this.staleDatagramFixes++;
+				continue;
+			}
+			last = sequence + i;
+			int start = LocationDatagram.HEADER_SIZE + i * LocationDatagram.FIX_SIZE;
+			this.addFix(new Received(Arrays.copyOfRange(buffer, start, start + LocationDatagram.FIX_SIZE), true, sequence + i));
+		}
+		if(last != null) {
+			this.lastSequences.put(session, last);
+		}
+	}
+
+	private synchronized void addFix(Received received) {
+		this.fixes.add(received);
+		this.notifyAll();
+	}
+}
@@ -0,0 +1,96 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the stationary detector's state changes and the time it keeps per state.
+ */
+public class StationaryDetectorTest {
+
+	private static final long MINUTE = 60 * 1000;
+
+	private final List<String> events = new ArrayList<>();
+	private final StationaryDetector.Listener listener = new StationaryDetector.Listener() {
+		@Override
+		public void onStationary() {
+			events.add("stationary");
+		}
+
+		@Override
+		public void onMoving() {
+			events.add("moving");
+		}
+	};
+
+	@Test
+	public void check_stationaryAfterPeriod() {
+		StationaryDetector detector = new StationaryDetector(this.listener, 5 * MINUTE, 0.6, 0);
+
+		assertFalse(detector.check(4 * MINUTE));
+		assertTrue(detector.check(5 * MINUTE));
+		assertTrue(detector.isStationary());
+		//Only reported once.
+		assertFalse(detector.check(10 * MINUTE));
+		assertEquals(1, this.events.size());
+	}
+
+	@Test
+	public void motion_resetsPeriodAndResumes() {
+		StationaryDetector detector = new StationaryDetector(this.listener, 5 * MINUTE, 0.6, 0);
+
+		detector.onMotion(3 * MINUTE);
+		assertFalse(detector.check(7 * MINUTE));
+		assertTrue(detector.check(8 * MINUTE));
+
+		detector.onMotion(9 * MINUTE);
+		assertFalse(detector.isStationary());
+		assertEquals("[stationary, moving]", this.events.toString());
+		//Motion while already moving is not reported.
+		detector.onMotion(10 * MINUTE);
+		assertEquals(2, this.events.size());
+	}
+
+	@Test
+	public void onAcceleration_ignoresRestingNoise() {
+		StationaryDetector detector = new StationaryDetector(this.listener, MINUTE, 0.6, 0);
+		detector.check(MINUTE);
+
+		//Lying flat and on its side, with a little sensor noise.
+		detector.onAcceleration(0.05f, -0.1f, 9.81f, 2 * MINUTE);
+		detector.onAcceleration(9.7f, 0.2f, 0.1f, 2 * MINUTE);
+		assertTrue(detector.isStationary());
+
+		//Picked up.
+		detector.onAcceleration(1.5f, 3.0f, 11.2f, 3 * MINUTE);
+		assertFalse(detector.isStationary());
+	}
+
+	@Test
+	public void getMillis_addsUpPerState() {
+		StationaryDetector detector = new StationaryDetector(this.listener, 5 * MINUTE, 0.6, 0);
+
+		detector.check(5 * MINUTE);
+		assertEquals(5 * MINUTE, detector.getMovingMillis(5 * MINUTE));
+		assertEquals(0, detector.getStationaryMillis(5 * MINUTE));
+
+		//Sat still overnight, then picked up.
+		detector.onMotion(8 * 60 * MINUTE);
+		assertEquals(8 * 60 * MINUTE - 5 * MINUTE, detector.getStationaryMillis(8 * 60 * MINUTE));
+		assertEquals(5 * MINUTE + 30 * MINUTE, detector.getMovingMillis(8 * 60 * MINUTE + 30 * MINUTE));
+		assertEquals(8 * 60 * MINUTE - 5 * MINUTE, detector.getStationaryMillis(8 * 60 * MINUTE + 30 * MINUTE));
+	}
+
+	@Test
+	public void setStationaryAfter_appliesToCurrentStretch() {
+		StationaryDetector detector = new StationaryDetector(this.listener, 10 * MINUTE, 0.6, 0);
+
+		assertFalse(detector.check(3 * MINUTE));
+		detector.setStationaryAfter(2 * MINUTE);
+		assertTrue(detector.check(3 * MINUTE));
+	}
+}
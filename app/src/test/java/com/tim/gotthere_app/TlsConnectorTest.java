@@ -0,0 +1,107 @@
+package com.tim.gotthere_app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connects over TLS to a stand-in server with a self-signed certificate.
+ */
+public class TlsConnectorTest {
+
+	private static final char[] PASSWORD = "gotthere".toCharArray();
+
+	private StandInServer server;
+	private EndpointSelector selector;
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new StandInServer(serverContext());
+		this.selector = new EndpointSelector(Collections.singletonList(this.server.getEndpoint()), 1000, 250);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.selector.shutdown();
+		this.server.close();
+	}
+
+	@Test
+	public void reconnect_resumesSession() throws Exception {
+		TlsConnector connector = new TlsConnector(clientContext(), (host, session) -> true, 5000);
+
+		for(int i = 0; i < 3; i++) {
+			SSLSocket socket = connector.wrap(this.selector.connect(), this.selector.getCurrent());
+			socket.getOutputStream().write(new byte[LocationDatagram.FIX_SIZE]);
+			assertTrue(this.server.awaitFixes(i + 1, 5000));
+			readTicket(socket);
+			socket.close();
+		}
+
+		assertEquals(3, connector.getHandshakes());
+		assertEquals(2, connector.getResumedHandshakes());
+		assertTrue(connector.getLastHandshakeMillis() >= 0);
+	}
+
+	@Test
+	public void untrustedServer_failsHandshake() throws Exception {
+		TlsConnector connector = new TlsConnector(SSLContext.getDefault(), null, 5000);
+		try {
+			connector.wrap(this.selector.connect(), this.selector.getCurrent());
+			fail("Handshake with a self-signed certificate should not be trusted by default");
+		} catch(IOException e) {
+			assertEquals(0, connector.getHandshakes());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void hostnameMismatch_isRejected() throws Exception {
+		TlsConnector connector = new TlsConnector(clientContext(), (host, session) -> false, 5000);
+		connector.wrap(this.selector.connect(), this.selector.getCurrent());
+	}
+
+	/**
+	 * TLS 1.3 sends the session ticket after the handshake, so it only arrives once the client reads.
+	 * The service's downlink thread is always reading, this stands in for it.
+	 */
+	private static void readTicket(SSLSocket socket) throws IOException {
+		socket.setSoTimeout(300);
+		try {
+			socket.getInputStream().read();
+		} catch(SocketTimeoutException e) {
+			//Nothing but the ticket was sent.
+		}
+	}
+
+	private static SSLContext clientContext() throws GeneralSecurityException, IOException {
+		try(InputStream certificate = TlsConnectorTest.class.getResourceAsStream("/tls/stand-in.pem")) {
+			return TlsConnector.trusting(certificate);
+		}
+	}
+
+	private static SSLContext serverContext() throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try(InputStream in = TlsConnectorTest.class.getResourceAsStream("/tls/stand-in.p12")) {
+			keyStore.load(in, PASSWORD);
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, PASSWORD);
+
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+}
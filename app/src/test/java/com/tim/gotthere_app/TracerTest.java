@@ -0,0 +1,111 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks recording spans and writing them out as a Chrome trace.
+ */
+public class TracerTest {
+
+	private static final Pattern SPAN = Pattern.compile("\\{\"name\":\"([^\"]*)\",\"ph\":\"X\",\"pid\":1,\"tid\":\\d+,\"ts\":\\d+\\.\\d{3},\"dur\":\\d+\\.\\d{3}(?:,\"args\":\\{\"count\":(\\d+)\\})?\\}");
+
+	@Test
+	public void disabled_recordsNothing() throws IOException {
+		Tracer tracer = new Tracer(16);
+
+		long begin = tracer.begin();
+		assertEquals(Tracer.DISABLED, begin);
+		tracer.end("write", begin);
+
+		assertEquals(0, tracer.size());
+		assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n]}\n", this.write(tracer));
+	}
+
+	@Test
+	public void writeJson_spansInOrder() throws IOException {
+		Tracer tracer = new Tracer(16);
+		tracer.setEnabled(true);
+
+		tracer.end("encode", tracer.begin(), 3);
+		tracer.end("write", tracer.begin(), 45);
+		tracer.end("conn\"ect", tracer.begin());
+
+		String json = this.write(tracer);
+		Matcher span = SPAN.matcher(json);
+		assertTrue(span.find());
+		assertEquals("encode", span.group(1));
+		assertEquals("3", span.group(2));
+		assertTrue(span.find());
+		assertEquals("write", span.group(1));
+		assertEquals("45", span.group(2));
+		//Names are escaped and spans without a count have no args.
+		assertTrue(json.contains("{\"name\":\"conn\\\"ect\",\"ph\":\"X\""));
+		//The recording thread is named once.
+		assertTrue(json.contains("\"ph\":\"M\",\"pid\":1,\"tid\":" + Thread.currentThread().getId()));
+		assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+		assertTrue(json.endsWith("]}\n"));
+	}
+
+	@Test
+	public void ring_keepsLatestSpans() throws IOException {
+		Tracer tracer = new Tracer(8);
+		tracer.setEnabled(true);
+		for(int i = 0; i < 20; i++) {
+			tracer.end("span", tracer.begin(), i);
+		}
+		assertEquals(8, tracer.size());
+
+		Matcher span = SPAN.matcher(this.write(tracer));
+		for(int i = 12; i < 20; i++) {
+			assertTrue(span.find());
+			assertEquals(String.valueOf(i), span.group(2));
+		}
+		assertFalse(span.find());
+
+		tracer.clear();
+		assertEquals(0, tracer.size());
+		assertFalse(SPAN.matcher(this.write(tracer)).find());
+	}
+
+	@Test
+	public void spansFromManyThreads() throws Exception {
+		final Tracer tracer = new Tracer(1024);
+		tracer.setEnabled(true);
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 100; i++) {
+					tracer.end("work", tracer.begin());
+				}
+			}, "worker-" + t);
+			threads[t].start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		String json = this.write(tracer);
+		Matcher span = SPAN.matcher(json);
+		int spans = 0;
+		while(span.find()) {
+			spans++;
+		}
+		assertEquals(400, spans);
+		for(int t = 0; t < threads.length; t++) {
+			assertTrue(json.contains("\"args\":{\"name\":\"worker-" + t + "\"}"));
+		}
+	}
+
+	private String write(Tracer tracer) throws IOException {
+		StringWriter out = new StringWriter();
+		tracer.writeJson(out);
+		return out.toString();
+	}
+}
@@ -0,0 +1,71 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a sender waiting for the next fix wakes up both for a new fix and for a change of upload mode.
+ */
+public class UploadSignalTest {
+
+	private static final String NOTHING = "nothing yet";
+
+	private final UploadSignal signal = new UploadSignal();
+	private final BlockingQueue<String> queue = new LinkedBlockingDeque<>();
+	private volatile boolean streaming = true;
+	private final AtomicReference<String> polled = new AtomicReference<>(NOTHING);
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	@Test
+	public void poll_returnsQueuedWithoutWaiting() throws InterruptedException {
+		this.queue.add("fix");
+		this.streaming = false;
+		assertEquals("fix", this.signal.poll(this.queue, () -> this.streaming));
+	}
+
+	@Test
+	public void poll_wakesForNewFix() throws InterruptedException {
+		this.startSender();
+		assertFalse(this.done.await(100, TimeUnit.MILLISECONDS));
+
+		this.queue.add("fix");
+		this.signal.signal();
+		assertTrue(this.done.await(1000, TimeUnit.MILLISECONDS));
+		assertEquals("fix", this.polled.get());
+	}
+
+	/**
+	 * Going stationary removes location updates, so no fix comes to wake the sender. The signal alone has to make it
+	 * give up streaming, so it can disconnect and go idle.
+	 */
+	@Test
+	public void poll_stationaryStopsStreaming() throws InterruptedException {
+		this.startSender();
+		assertFalse(this.done.await(100, TimeUnit.MILLISECONDS));
+
+		this.streaming = false;
+		this.signal.signal();
+		assertTrue(this.done.await(1000, TimeUnit.MILLISECONDS));
+		assertNull(this.polled.get());
+	}
+
+	private void startSender() {
+		Thread sender = new Thread(() -> {
+			try {
+				this.polled.set(this.signal.poll(this.queue, () -> this.streaming));
+			} catch(InterruptedException e) {
+				return;
+			}
+			this.done.countDown();
+		});
+		sender.setDaemon(true);
+		sender.start();
+	}
+}
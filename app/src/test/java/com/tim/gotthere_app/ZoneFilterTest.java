@@ -0,0 +1,74 @@
+package com.tim.gotthere_app;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which fixes are held back while the device sits in a zone.
+ */
+public class ZoneFilterTest {
+
+	private static final long HEARTBEAT = 10 * 60 * 1000;
+	private static final long MINUTE = 60 * 1000;
+
+	private static final Geofence DEPOT = Geofence.circle(1, 40.0, -75.0, 200);
+	private static final Geofence SITE = Geofence.circle(2, 40.0, -74.95, 200);
+	private static final GeofenceIndex ZONES = new GeofenceIndex(Arrays.asList(DEPOT, SITE), 0.01);
+
+	private final ZoneFilter filter = new ZoneFilter();
+
+	@Test
+	public void suppress_sendsEntryThenHoldsBack() {
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 0, HEARTBEAT));
+		assertSame(DEPOT, this.filter.getCurrentZone());
+
+		assertTrue(this.filter.suppress(ZONES, 40.0005, -75.0, MINUTE, HEARTBEAT));
+		assertTrue(this.filter.suppress(ZONES, 40.0, -75.0005, 9 * MINUTE, HEARTBEAT));
+	}
+
+	@Test
+	public void suppress_heartbeatGoesThrough() {
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 0, HEARTBEAT));
+		assertTrue(this.filter.suppress(ZONES, 40.0, -75.0, HEARTBEAT - 1, HEARTBEAT));
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, HEARTBEAT, HEARTBEAT));
+
+		//The heartbeat counts from the last fix that went through.
+		assertTrue(this.filter.suppress(ZONES, 40.0, -75.0, HEARTBEAT + MINUTE, HEARTBEAT));
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 2 * HEARTBEAT, HEARTBEAT));
+	}
+
+	@Test
+	public void suppress_exitGoesThrough() {
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 0, HEARTBEAT));
+		//About 300 m north, outside the depot.
+		assertFalse(this.filter.suppress(ZONES, 40.0027, -75.0, MINUTE, HEARTBEAT));
+		assertNull(this.filter.getCurrentZone());
+
+		//Outside every zone nothing is held back.
+		assertFalse(this.filter.suppress(ZONES, 40.003, -75.0, MINUTE + 1, HEARTBEAT));
+		//Coming back in is an entry again.
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, MINUTE + 2, HEARTBEAT));
+		assertTrue(this.filter.suppress(ZONES, 40.0, -75.0, MINUTE + 3, HEARTBEAT));
+	}
+
+	@Test
+	public void suppress_movingBetweenZonesGoesThrough() {
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 0, HEARTBEAT));
+		assertFalse(this.filter.suppress(ZONES, 40.0, -74.95, MINUTE, HEARTBEAT));
+		assertSame(SITE, this.filter.getCurrentZone());
+		assertTrue(this.filter.suppress(ZONES, 40.0, -74.95, 2 * MINUTE, HEARTBEAT));
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 3 * MINUTE, HEARTBEAT));
+	}
+
+	@Test
+	public void suppress_sameIdInNewIndexIsSameZone() {
+		assertFalse(this.filter.suppress(ZONES, 40.0, -75.0, 0, HEARTBEAT));
+
+		//The server resent the zones, the depot is now a new but equal object.
+		GeofenceIndex resent = new GeofenceIndex(Arrays.asList(Geofence.circle(1, 40.0, -75.0, 200), SITE), 0.01);
+		assertTrue(this.filter.suppress(resent, 40.0, -75.0, MINUTE, HEARTBEAT));
+	}
+}
@@ -0,0 +1,71 @@
+package com.tim.gotthere_ingest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding throughput in fixes per second, for a large chunk of the TCP stream and for a run of
+ * full datagrams. Run with ./gradlew :ingest:jmh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FixDecoderBenchmark {
+
+	private static final int STREAM_FIXES = 4096;
+	//As many fixes as the app puts in one datagram.
+	private static final int DATAGRAM_FIXES = 32;
+	private static final int DATAGRAMS = STREAM_FIXES / DATAGRAM_FIXES;
+	private static final int DATAGRAM_SIZE = FixDecoder.HEADER_SIZE + DATAGRAM_FIXES * FixDecoder.FIX_SIZE;
+
+	private final byte[] stream = new byte[STREAM_FIXES * FixDecoder.FIX_SIZE];
+	private final byte[] datagrams = new byte[DATAGRAMS * DATAGRAM_SIZE];
+	private final FixColumns columns = new FixColumns(STREAM_FIXES);
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(2810);
+		for(int i = 0; i < STREAM_FIXES; i++) {
+			double latitude = random.nextDouble() * 180 - 90;
+			double longitude = random.nextDouble() * 360 - 180;
+			double bearing = random.nextDouble() * 360;
+			double speed = random.nextDouble() * 40;
+			FixEncoder.encode(this.stream, i * FixDecoder.FIX_SIZE, latitude, longitude, bearing, speed);
+
+			int datagram = i / DATAGRAM_FIXES;
+			int fix = i % DATAGRAM_FIXES;
+			if(fix == 0) {
+				FixEncoder.writeHeader(this.datagrams, datagram * DATAGRAM_SIZE, datagram, i, DATAGRAM_FIXES);
+			}
+			FixEncoder.encode(this.datagrams, datagram * DATAGRAM_SIZE + FixDecoder.HEADER_SIZE + fix * FixDecoder.FIX_SIZE,
+					latitude, longitude, bearing, speed);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STREAM_FIXES)
+	public FixColumns decodeStream() {
+		this.columns.clear();
+		FixDecoder.decodeStream(this.stream, 0, this.stream.length, 0, this.columns);
+		return this.columns;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(STREAM_FIXES)
+	public FixColumns decodeDatagrams() {
+		this.columns.clear();
+		for(int i = 0; i < DATAGRAMS; i++) {
+			FixDecoder.decodeDatagram(this.datagrams, i * DATAGRAM_SIZE, DATAGRAM_SIZE, this.columns);
+		}
+		return this.columns;
+	}
+}
@@ -0,0 +1,64 @@
+package com.tim.gotthere_ingest;
+
+import java.util.Arrays;
+
+/**
+ * Decoded fixes kept as one primitive array per field, so a batch can be decoded and handed to storage without an
+ * object per fix. Meant to be reused: clear it between batches and the arrays only grow when a batch is bigger
+ * than any before it. Only the first {@link #size()} entries of each array are meaningful.
+ */
+public class FixColumns {
+
+	public double[] latitudes;
+	public double[] longitudes;
+	//Degrees clockwise from north.
+	public double[] bearings;
+	//Meters per second.
+	public double[] speeds;
+	//Datagram sequence numbers, or the position in the stream for fixes from the TCP stream.
+	public int[] sequences;
+
+	private int size = 0;
+
+	public FixColumns(int capacity) {
+		this.latitudes = new double[capacity];
+		this.longitudes = new double[capacity];
+		this.bearings = new double[capacity];
+		this.speeds = new double[capacity];
+		this.sequences = new int[capacity];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int capacity() {
+		return this.sequences.length;
+	}
+
+	/**
+	 * Empties the columns, keeping the arrays for the next batch.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Makes room for the given number of fixes after the current ones.
+	 * @return The index the first of them goes at.
+	 */
+	int reserve(int count) {
+		int start = this.size;
+		int needed = start + count;
+		if(needed > this.capacity()) {
+			int capacity = Math.max(needed, this.capacity() * 2);
+			this.latitudes = Arrays.copyOf(this.latitudes, capacity);
+			this.longitudes = Arrays.copyOf(this.longitudes, capacity);
+			this.bearings = Arrays.copyOf(this.bearings, capacity);
+			this.speeds = Arrays.copyOf(this.speeds, capacity);
+			this.sequences = Arrays.copyOf(this.sequences, capacity);
+		}
+		this.size = needed;
+		return start;
+	}
+}
@@ -0,0 +1,101 @@
+package com.tim.gotthere_ingest;
+
+/**
+ * Decodes fixes as the app sends them, a whole received buffer at a time, into {@link FixColumns}.
+ * Each fix is 15 bytes: bearing (3 bytes), latitude (5), longitude (5) and speed (2). A number is stored as its
+ * whole part in two bytes and then its fraction two decimal digits per byte:
+ * <ul>
+ *     <li>The whole part is the second byte, or for values past a byte 127 plus the first byte (unsigned) or
+ *     -128 plus the first byte (signed).</li>
+ *     <li>Latitude and longitude keep six decimals, with the same sign as the value. Bearing keeps two.</li>
+ *     <li>Speed is an unsigned whole byte and a byte of hundredths.</li>
+ * </ul>
+ * Fixes come either as the plain TCP stream, one after another, or as live datagrams with a 15 byte header
+ * (magic 'G', version 1, long session, int sequence, byte count), the layout of LocationDatagram in the app.
+ * Decoding does not allocate unless the columns have to grow.
+ */
+public final class FixDecoder {
+
+	public static final int FIX_SIZE = 15;
+
+	public static final byte MAGIC = 'G';
+	public static final byte VERSION = 1;
+	public static final int HEADER_SIZE = 15;
+
+	private FixDecoder() {
+	}
+
+	/**
+	 * Decodes every whole fix in a chunk of the TCP stream, numbering them on from firstSequence.
+	 * @return How many bytes were used. Anything after that is the start of a fix that has not fully arrived yet,
+	 * to be decoded along with the next chunk.
+	 */
+	public static int decodeStream(byte[] buffer, int offset, int length, int firstSequence, FixColumns columns) {
+		int count = length / FIX_SIZE;
+		decode(buffer, offset, count, firstSequence, columns);
+		return count * FIX_SIZE;
+	}
+
+	/**
+	 * Decodes the fixes of one datagram. The datagram's session can be read with {@link #getSession}.
+	 * @return How many fixes were added, or -1 if the bytes are not a datagram this version understands.
+	 */
+	public static int decodeDatagram(byte[] buffer, int offset, int length, FixColumns columns) {
+		if(length < HEADER_SIZE || buffer[offset] != MAGIC || buffer[offset + 1] != VERSION) {
+			return -1;
+		}
+		int count = buffer[offset + 14] & 0xFF;
+		if(count == 0 || length < HEADER_SIZE + count * FIX_SIZE) {
+			return -1;
+		}
+		decode(buffer, offset + HEADER_SIZE, count, getSequence(buffer, offset), columns);
+		return count;
+	}
+
+	public static long getSession(byte[] buffer, int offset) {
+		long session = 0;
+		for(int i = 0; i < 8; i++) {
+			session = (session << 8) | (buffer[offset + 2 + i] & 0xFF);
+		}
+		return session;
+	}
+
+	public static int getSequence(byte[] buffer, int offset) {
+		int sequence = 0;
+		for(int i = 0; i < 4; i++) {
+			sequence = (sequence << 8) | (buffer[offset + 10 + i] & 0xFF);
+		}
+		return sequence;
+	}
+
+	private static void decode(byte[] buffer, int position, int count, int firstSequence, FixColumns columns) {
+		int start = columns.reserve(count);
+		//Local copies so the loop doesn't reload the fields after every store.
+		double[] bearings = columns.bearings;
+		double[] latitudes = columns.latitudes;
+		double[] longitudes = columns.longitudes;
+		double[] speeds = columns.speeds;
+		int[] sequences = columns.sequences;
+
+		int end = start + count;
+		for(int i = start; i < end; i++) {
+			bearings[i] = whole(buffer, position) + buffer[position + 2] / 100.0;
+			latitudes[i] = whole(buffer, position + 3)
+					+ (buffer[position + 5] * 10000 + buffer[position + 6] * 100 + buffer[position + 7]) / 1000000.0;
+			longitudes[i] = whole(buffer, position + 8)
+					+ (buffer[position + 10] * 10000 + buffer[position + 11] * 100 + buffer[position + 12]) / 1000000.0;
+			speeds[i] = (buffer[position + 13] & 0xFF) + buffer[position + 14] / 100.0;
+			sequences[i] = firstSequence + i - start;
+			position += FIX_SIZE;
+		}
+	}
+
+	/**
+	 * Reads the two byte whole part of a number.
+	 */
+	private static int whole(byte[] buffer, int position) {
+		byte high = buffer[position + 1];
+		//Inside a byte's range the first byte is 0, so adding it only matters for big negative values.
+		return high == Byte.MAX_VALUE ? Byte.MAX_VALUE + (buffer[position] & 0xFF) : high + buffer[position];
+	}
+}
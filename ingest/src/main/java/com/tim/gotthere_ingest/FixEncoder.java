@@ -0,0 +1,64 @@
+package com.tim.gotthere_ingest;
+
+/**
+ * Encodes fixes in the layout {@link FixDecoder} reads. The app sends everything through here, and tests, benchmarks
+ * and tools that replay traffic at a server use it too, so there is only one copy of the wire format.
+ */
+public final class FixEncoder {
+
+	private FixEncoder() {
+	}
+
+	public static void encode(byte[] buffer, int start, double latitude, double longitude, double bearing, double speed) {
+		insertDoubleThree(buffer, start, bearing);
+		insertDoubleFive(buffer, start + 3, latitude);
+		insertDoubleFive(buffer, start + 8, longitude);
+		insertDoubleTwo(buffer, start + 13, speed);
+	}
+
+	/**
+	 * Writes a datagram header to the buffer. The fixes go right after it.
+	 */
+	public static void writeHeader(byte[] buffer, int start, long session, int sequence, int count) {
+		buffer[start] = FixDecoder.MAGIC;
+		buffer[start + 1] = FixDecoder.VERSION;
+		for(int i = 0; i < 8; i++) {
+			buffer[start + 2 + i] = (byte) (session >>> (56 - i * 8));
+		}
+		for(int i = 0; i < 4; i++) {
+			buffer[start + 10 + i] = (byte) (sequence >>> (24 - i * 8));
+		}
+		buffer[start + 14] = (byte) count;
+	}
+
+	private static void insertWhole(byte[] buffer, int start, double value) {
+		int ivalue = (int) value;
+		if(ivalue > Byte.MAX_VALUE) {
+			buffer[start] = (byte) (ivalue - Byte.MAX_VALUE);
+			buffer[start + 1] = Byte.MAX_VALUE;
+		} else if(ivalue < Byte.MIN_VALUE) {
+			buffer[start] = (byte) (ivalue - Byte.MIN_VALUE);
+			buffer[start + 1] = Byte.MIN_VALUE;
+		} else {
+			buffer[start] = 0;
+			buffer[start + 1] = (byte) value;
+		}
+	}
+
+	private static void insertDoubleThree(byte[] buffer, int start, double value) {
+		insertWhole(buffer, start, value);
+		buffer[start + 2] = (byte) (((int) (Math.abs(value) * 100)) % 100);
+	}
+
+	private static void insertDoubleFive(byte[] buffer, int start, double value) {
+		insertWhole(buffer, start, value);
+		buffer[start + 2] = (byte) (((int) (value * 100)) % 100);
+		buffer[start + 3] = (byte) (((int) (value * 10000)) % 100);
+		buffer[start + 4] = (byte) (((int) (value * 1000000)) % 100);
+	}
+
+	private static void insertDoubleTwo(byte[] buffer, int start, double value) {
+		buffer[start] = (byte) (int) value;
+		buffer[start + 1] = (byte) (((int) (value * 100)) % 100);
+	}
+}
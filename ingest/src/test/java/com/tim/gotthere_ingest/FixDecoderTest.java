@@ -0,0 +1,142 @@
+package com.tim.gotthere_ingest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks decoding against the app's encoding, for the TCP stream and for datagrams.
+ */
+public class FixDecoderTest {
+
+	private static final double DEGREES = 0.000002;
+	private static final double HUNDREDTHS = 0.0101;
+
+	@Test
+	public void decodeStream_knownFixes() {
+		double[][] fixes = {
+				//Latitude, longitude, bearing, speed.
+				{40.123456, -75.654321, 359.5, 12.34},
+				{-33.8688, 151.2093, 0, 0},
+				{0.5, -0.25, 127.75, 255.5},
+				{-90, 180, 128, 1},
+				{89.999999, -180, 90.25, 0.01},
+		};
+		byte[] buffer = new byte[fixes.length * FixDecoder.FIX_SIZE];
+		for(int i = 0; i < fixes.length; i++) {
+			FixEncoder.encode(buffer, i * FixDecoder.FIX_SIZE, fixes[i][0], fixes[i][1], fixes[i][2], fixes[i][3]);
+		}
+
+		FixColumns columns = new FixColumns(8);
+		assertEquals(buffer.length, FixDecoder.decodeStream(buffer, 0, buffer.length, 100, columns));
+		assertEquals(fixes.length, columns.size());
+		for(int i = 0; i < fixes.length; i++) {
+			assertEquals(fixes[i][0], columns.latitudes[i], DEGREES);
+			assertEquals(fixes[i][1], columns.longitudes[i], DEGREES);
+			assertEquals(fixes[i][2], columns.bearings[i], HUNDREDTHS);
+			assertEquals(fixes[i][3], columns.speeds[i], HUNDREDTHS);
+			assertEquals(100 + i, columns.sequences[i]);
+		}
+	}
+
+	@Test
+	public void decodeStream_randomFixes() {
+		Random random = new Random(2810);
+		int count = 10000;
+		double[] latitudes = new double[count];
+		double[] longitudes = new double[count];
+		byte[] buffer = new byte[count * FixDecoder.FIX_SIZE];
+		for(int i = 0; i < count; i++) {
+			latitudes[i] = random.nextDouble() * 180 - 90;
+			longitudes[i] = random.nextDouble() * 360 - 180;
+			FixEncoder.encode(buffer, i * FixDecoder.FIX_SIZE, latitudes[i], longitudes[i], random.nextDouble() * 360, random.nextDouble() * 40);
+		}
+
+		FixColumns columns = new FixColumns(16);
+		FixDecoder.decodeStream(buffer, 0, buffer.length, 0, columns);
+		assertEquals(count, columns.size());
+		for(int i = 0; i < count; i++) {
+			assertEquals(latitudes[i], columns.latitudes[i], DEGREES);
+			assertEquals(longitudes[i], columns.longitudes[i], DEGREES);
+		}
+	}
+
+	@Test
+	public void decodeStream_leavesPartialFix() {
+		byte[] buffer = new byte[3 * FixDecoder.FIX_SIZE];
+		for(int i = 0; i < 3; i++) {
+			FixEncoder.encode(buffer, i * FixDecoder.FIX_SIZE, i, -i, 0, 0);
+		}
+
+		//The first read ends in the middle of the second fix.
+		FixColumns columns = new FixColumns(4);
+		int used = FixDecoder.decodeStream(buffer, 0, 20, 0, columns);
+		assertEquals(FixDecoder.FIX_SIZE, used);
+		assertEquals(1, columns.size());
+
+		//The rest arrives, decoded together with the leftover bytes.
+		FixDecoder.decodeStream(buffer, used, buffer.length - used, columns.size(), columns);
+		assertEquals(3, columns.size());
+		assertEquals(2, columns.latitudes[2], DEGREES);
+		assertEquals(-2, columns.longitudes[2], DEGREES);
+		assertEquals(2, columns.sequences[2]);
+	}
+
+	@Test
+	public void decodeDatagram_readsHeader() {
+		int count = 3;
+		byte[] buffer = new byte[FixDecoder.HEADER_SIZE + count * FixDecoder.FIX_SIZE];
+		FixEncoder.writeHeader(buffer, 0, 0x0123456789ABCDEFL, Integer.MAX_VALUE, count);
+		for(int i = 0; i < count; i++) {
+			FixEncoder.encode(buffer, FixDecoder.HEADER_SIZE + i * FixDecoder.FIX_SIZE, 10 + i, 20 + i, 0, 0);
+		}
+
+		FixColumns columns = new FixColumns(1);
+		assertEquals(count, FixDecoder.decodeDatagram(buffer, 0, buffer.length, columns));
+		assertEquals(0x0123456789ABCDEFL, FixDecoder.getSession(buffer, 0));
+		assertEquals(count, columns.size());
+		assertEquals(12, columns.latitudes[2], DEGREES);
+		assertEquals(22, columns.longitudes[2], DEGREES);
+		//Sequence numbers wrap around like the app's.
+		assertEquals(Integer.MAX_VALUE, columns.sequences[0]);
+		assertEquals(Integer.MIN_VALUE, columns.sequences[1]);
+	}
+
+	@Test
+	public void decodeDatagram_rejectsInvalid() {
+		byte[] buffer = new byte[FixDecoder.HEADER_SIZE + 2 * FixDecoder.FIX_SIZE];
+		FixEncoder.writeHeader(buffer, 0, 1, 1, 2);
+		FixColumns columns = new FixColumns(4);
+
+		//Cut short.
+		assertEquals(-1, FixDecoder.decodeDatagram(buffer, 0, buffer.length - 1, columns));
+		//Wrong version.
+		buffer[1] = 2;
+		assertEquals(-1, FixDecoder.decodeDatagram(buffer, 0, buffer.length, columns));
+		//No fixes.
+		FixEncoder.writeHeader(buffer, 0, 1, 1, 0);
+		assertEquals(-1, FixDecoder.decodeDatagram(buffer, 0, buffer.length, columns));
+		assertEquals(0, columns.size());
+	}
+
+	@Test
+	public void columns_reusedBetweenBatches() {
+		byte[] buffer = new byte[10 * FixDecoder.FIX_SIZE];
+		FixColumns columns = new FixColumns(4);
+
+		FixDecoder.decodeStream(buffer, 0, buffer.length, 0, columns);
+		assertEquals(10, columns.size());
+		double[] latitudes = columns.latitudes;
+		assertTrue(columns.capacity() >= 10);
+
+		//A smaller batch after clearing keeps the same arrays.
+		columns.clear();
+		FixDecoder.decodeStream(buffer, 0, 5 * FixDecoder.FIX_SIZE, 0, columns);
+		assertEquals(5, columns.size());
+		assertSame(latitudes, columns.latitudes);
+		assertTrue(Arrays.equals(new int[] {0, 1, 2, 3, 4}, Arrays.copyOf(columns.sequences, 5)));
+	}
+}